@@ -0,0 +1,259 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Index of the attachments already uploaded, by content hash.
+ * 
+ * <p>
+ * Files are identified by the SHA-256 of the content sent. The index is kept across runs in the properties file set
+ * in the <code>testlink.attachments.index</code> system property (default
+ * <code>target/testlink-attachments.properties</code>), updated under a file lock at the end of the run. It also holds
+ * the upload budget of the run, set in bytes in <code>testlink.attachments.budget</code> (default 0, unlimited).
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ * 
+ * @since 0.1
+ */
+final class AttachmentIndex {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(AttachmentIndex.class.getName());
+
+    /**
+     * Lazily created instance.
+     */
+    private static AttachmentIndex instance = null;
+
+    /**
+     * The index file.
+     */
+    private final File file;
+
+    /**
+     * Attachment IDs by server URL and content hash.
+     */
+    private final Map<String, Integer> attachments = new HashMap<String, Integer>();
+
+    /**
+     * Attachments uploaded in this run.
+     */
+    private final Map<String, Integer> uploaded = new HashMap<String, Integer>();
+
+    /**
+     * Bytes left in the budget of the run, or a negative value if unlimited.
+     */
+    private final AtomicLong budget;
+
+    /**
+     * @param file the index file
+     * @param budget the upload budget of the run in bytes, zero or less for unlimited
+     */
+    /* package */ AttachmentIndex(File file, long budget) {
+        this.file = file;
+        this.budget = new AtomicLong(budget > 0 ? budget : -1L);
+        try {
+            final Properties properties = PropertiesStore.load(file);
+            for (String key : properties.stringPropertyNames()) {
+                attachments.put(key, Integer.valueOf(properties.getProperty(key)));
+            }
+        } catch (IOException ioe) {
+            LOGGER.log(Level.WARNING, "Error reading attachment index from " + file, ioe);
+        } catch (NumberFormatException nfe) {
+            LOGGER.log(Level.WARNING, "Invalid attachment index in " + file, nfe);
+        }
+    }
+
+    /**
+     * Returns the index of this run, reading the index file on first use.
+     * 
+     * @return the index
+     */
+    /* package */ static synchronized AttachmentIndex getInstance() {
+        if (instance == null) {
+            final AttachmentIndex index = new AttachmentIndex(new File(System.getProperty(
+                    "testlink.attachments.index", "target/testlink-attachments.properties")), Long.parseLong(System
+                    .getProperty("testlink.attachments.budget", "0")));
+            TestLinkRun.install();
+            instance = index;
+        }
+        return instance;
+    }
+
+    /**
+     * Saves the index of this run, if it was used.
+     */
+    /* package */ static void saveInstance() {
+        final AttachmentIndex index;
+        synchronized (AttachmentIndex.class) {
+            index = instance;
+        }
+        if (index != null) {
+            index.save();
+        }
+    }
+
+    /**
+     * Computes the content hash of an attachment.
+     * 
+     * @param content the attachment content
+     * @return the hexadecimal SHA-256 of the content
+     */
+    /* package */ static String hash(byte[] content) {
+        return new String(Hex.encodeHex(sha256().digest(content)));
+    }
+
+    /**
+     * Computes the content hash of an attachment file, without loading the whole file in memory.
+     * 
+     * @param file the attachment file
+     * @return the hexadecimal SHA-256 of the file content
+     * @throws IOException if the file cannot be read
+     */
+    /* package */ static String hash(File file) throws IOException {
+        final MessageDigest digest = sha256();
+        final InputStream in = new DigestInputStream(new FileInputStream(file), digest);
+        try {
+            final byte[] buffer = new byte[8192];
+            while (in.read(buffer) >= 0) {
+                // keep reading
+            }
+        } finally {
+            in.close();
+        }
+        return new String(Hex.encodeHex(digest.digest()));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new RuntimeException("SHA-256 not supported by the JVM", nsae);
+        }
+    }
+
+    /**
+     * Returns the attachment already uploaded with some content.
+     * 
+     * @param url address to the TestLink server
+     * @param hash the content hash
+     * @return the attachment ID, or <code>null</code> if the content was never uploaded to the server
+     */
+    /* package */ synchronized Integer get(String url, String hash) {
+        return attachments.get(url + '|' + hash);
+    }
+
+    /**
+     * Records an uploaded attachment.
+     * 
+     * @param url address to the TestLink server
+     * @param hash the content hash
+     * @param attachmentId the attachment ID
+     */
+    /* package */ synchronized void put(String url, String hash, Integer attachmentId) {
+        attachments.put(url + '|' + hash, attachmentId);
+        uploaded.put(url + '|' + hash, attachmentId);
+    }
+
+    /**
+     * Takes bytes from the upload budget of the run.
+     * 
+     * @param bytes the size of the upload
+     * @return <code>true</code> if the budget allows the upload, <code>false</code> otherwise
+     */
+    /* package */ boolean reserve(long bytes) {
+        while (true) {
+            final long left = budget.get();
+            if (left < 0) {
+                return true;
+            }
+            if (left < bytes) {
+                return false;
+            }
+            if (budget.compareAndSet(left, left - bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back bytes taken from the upload budget for an upload that did not happen.
+     * 
+     * @param bytes the size of the upload
+     */
+    /* package */ void refund(long bytes) {
+        while (true) {
+            final long left = budget.get();
+            if (left < 0 || budget.compareAndSet(left, left + bytes)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds the attachments uploaded in this run to the index file.
+     */
+    /* package */ void save() {
+        final Map<String, Integer> run;
+        synchronized (this) {
+            if (uploaded.isEmpty()) {
+                return;
+            }
+            run = new HashMap<String, Integer>(uploaded);
+        }
+
+        try {
+            PropertiesStore.update(file, new PropertiesStore.Merge() {
+                public void merge(Properties properties) {
+                    for (Map.Entry<String, Integer> entry : run.entrySet()) {
+                        properties.setProperty(entry.getKey(), entry.getValue().toString());
+                    }
+                }
+            }, "TestLink Unit uploaded attachments, by server and SHA-256");
+        } catch (IOException ioe) {
+            LOGGER.log(Level.WARNING, "Error saving attachment index to " + file, ioe);
+        }
+    }
+}
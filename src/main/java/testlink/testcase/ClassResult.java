@@ -0,0 +1,239 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import br.eti.kinoshita.testlinkjavaapi.constants.ExecutionStatus;
+import br.eti.kinoshita.testlinkjavaapi.model.TestCase;
+
+/**
+ * Result of a test class, made of the results of its test methods.
+ * 
+ * <p>
+ * A test class is a single TestLink test case, so it gets a single execution: failed if any of its methods failed,
+ * passed otherwise. The execution is reported in the background once every test method of the class ran. Classes
+ * only partly run are reported when their {@link TestLinkSuite} finishes, or at the end of the run. The artifacts of
+ * the failed methods are then uploaded to the execution.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ * 
+ * @since 0.1
+ */
+final class ClassResult {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ClassResult.class.getName());
+
+    /**
+     * Results by test class.
+     */
+    private static final ConcurrentMap<Class<?>, ClassResult> RESULTS = new ConcurrentHashMap<Class<?>, ClassResult>();
+
+    private final String className;
+
+    /**
+     * Number of test methods of the class.
+     */
+    private final int expected;
+
+    /**
+     * Number of test methods run so far.
+     */
+    private int finished = 0;
+
+    private final List<String> failures = new ArrayList<String>();
+
+    private final List<FailureArtifacts.Snapshot> artifacts = new ArrayList<FailureArtifacts.Snapshot>();
+
+    private TestLinkSite site;
+
+    private TestPlanProvisioner testPlan;
+
+    private TestCase testCase;
+
+    private boolean reported = false;
+
+    private ClassResult(Class<?> testClass) {
+        this.className = testClass.getName();
+        this.expected = countTestMethods(testClass);
+    }
+
+    /**
+     * Returns the result of a test class.
+     * 
+     * @param testClass the test class
+     * @return the result
+     */
+    /* package */ static ClassResult forClass(Class<?> testClass) {
+        ClassResult result = RESULTS.get(testClass);
+        if (result == null) {
+            final ClassResult created = new ClassResult(testClass);
+            result = RESULTS.putIfAbsent(testClass, created);
+            if (result == null) {
+                result = created;
+                TestLinkRun.install();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reports the classes whose test methods did not all run.
+     */
+    /* package */ static void reportAll() {
+        for (ClassResult result : RESULTS.values()) {
+            result.report();
+        }
+    }
+
+    /**
+     * Reports some classes, whether their test methods all ran or not.
+     * 
+     * @param testClasses the test classes
+     */
+    /* package */ static void reportAll(Collection<Class<?>> testClasses) {
+        for (Class<?> testClass : testClasses) {
+            final ClassResult result = RESULTS.get(testClass);
+            if (result != null) {
+                result.report();
+            }
+        }
+    }
+
+    /**
+     * Records the result of a test method, reporting the class once all its methods ran.
+     * 
+     * @param site the TestLink site
+     * @param testPlan the test plan
+     * @param testCase the TestLink test case of the class
+     * @param methodName the test method name
+     * @param failure the test failure, or <code>null</code> if the test passed
+     * @param snapshot the failure artifacts, or <code>null</code>
+     */
+    /* package */ void record(TestLinkSite site, TestPlanProvisioner testPlan, TestCase testCase, String methodName,
+            Throwable failure, FailureArtifacts.Snapshot snapshot) {
+        final boolean complete;
+        synchronized (this) {
+            this.site = site;
+            this.testPlan = testPlan;
+            this.testCase = testCase;
+            finished++;
+            if (failure != null) {
+                failures.add(methodName + ": " + failure);
+            }
+            if (snapshot != null) {
+                artifacts.add(snapshot);
+            }
+            complete = finished >= expected;
+        }
+        if (complete) {
+            report();
+        }
+    }
+
+    /**
+     * Reports the execution of the class, once. Results recorded afterwards are ignored.
+     */
+    /* package */ void report() {
+        final TestLinkSite reportSite;
+        final TestPlanProvisioner reportPlan;
+        final TestCase reportCase;
+        final boolean passed;
+        final String notes;
+        final List<FailureArtifacts.Snapshot> snapshots;
+        synchronized (this) {
+            if (reported || testCase == null) {
+                return;
+            }
+            reported = true;
+            reportSite = site;
+            reportPlan = testPlan;
+            reportCase = testCase;
+            passed = failures.isEmpty();
+            final StringBuilder builder = new StringBuilder();
+            builder.append(finished).append(" of ").append(expected).append(" tests run, ").append(failures.size())
+                    .append(" failed");
+            for (String failure : failures) {
+                builder.append('\n').append(failure);
+            }
+            notes = builder.toString();
+            snapshots = new ArrayList<FailureArtifacts.Snapshot>(artifacts);
+        }
+
+        reportPlan.report(reportCase, new Runnable() {
+            public void run() {
+                try {
+                    final Integer platformId = reportPlan.getPlatform() != null ? reportPlan.getPlatform().getId()
+                            : null;
+                    final Integer executionId = reportSite.reportResult(reportCase.getId(), reportPlan.getTestPlan()
+                            .getId(), reportPlan.getBuild().getId(), platformId, passed ? ExecutionStatus.PASSED
+                            : ExecutionStatus.FAILED, notes);
+                    if (executionId != null) {
+                        for (FailureArtifacts.Snapshot snapshot : snapshots) {
+                            FailureArtifacts.upload(reportSite, executionId, snapshot);
+                        }
+                    }
+                } catch (RuntimeException re) {
+                    LOGGER.log(Level.SEVERE, "Error reporting result of test class " + className + ": "
+                            + re.getMessage(), re);
+                }
+            }
+        });
+    }
+
+    /**
+     * Counts the test methods the way JUnit does for {@link junit.framework.TestCase}: public methods without
+     * parameters, returning void, whose names start with <code>test</code>.
+     */
+    /* package */ static int countTestMethods(Class<?> testClass) {
+        final Set<String> names = new HashSet<String>();
+        Class<?> type = testClass;
+        while (type != null && junit.framework.TestCase.class.isAssignableFrom(type)) {
+            for (Method method : type.getDeclaredMethods()) {
+                if (Modifier.isPublic(method.getModifiers()) && method.getParameterTypes().length == 0
+                        && method.getReturnType() == Void.TYPE && method.getName().startsWith("test")) {
+                    names.add(method.getName());
+                }
+            }
+            type = type.getSuperclass();
+        }
+        return names.size();
+    }
+}
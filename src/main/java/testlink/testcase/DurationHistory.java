@@ -0,0 +1,217 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Local store of test durations, in milliseconds.
+ * 
+ * <p>
+ * Keeps one entry per test class, keyed by the class name, and one per test method, keyed by
+ * <code>class#method</code>. Each entry is a moving average of the recorded runs, so that a single slow run does not
+ * reorder the whole suite. The store is the properties file set in the <code>testlink.history</code> system property
+ * (default <code>testlink-durations.properties</code> in the working directory, kept by <code>mvn clean</code>). It is
+ * read once and updated at the end of the run, under a file lock so that concurrent forks do not lose each other's
+ * entries.
+ * </p>
+ * 
+ * <p>
+ * Forks partitioning test classes must all read the same durations, while forks that finish early may already be
+ * saving theirs. They read the seed set in the <code>testlink.history.seed</code> system property instead, a file no
+ * fork writes to during the run (e.g. a copy of the store made before starting the forks).
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ * 
+ * @since 0.1
+ */
+final class DurationHistory {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(DurationHistory.class.getName());
+
+    /**
+     * Weight of the latest run in the moving average.
+     */
+    private static final double WEIGHT = 0.5;
+
+    /**
+     * Lazily created instance.
+     */
+    private static DurationHistory instance = null;
+
+    /**
+     * The store.
+     */
+    private final File file;
+
+    /**
+     * Durations read from the store.
+     */
+    private final Map<String, Long> durations = new HashMap<String, Long>();
+
+    /**
+     * Durations recorded in this run.
+     */
+    private final Map<String, Long> recorded = new HashMap<String, Long>();
+
+    /**
+     * @param file the store
+     */
+    /* package */ DurationHistory(File file) {
+        this.file = file;
+        try {
+            durations.putAll(toMap(PropertiesStore.load(file)));
+        } catch (IOException ioe) {
+            LOGGER.log(Level.WARNING, "Error reading test durations from " + file, ioe);
+        }
+    }
+
+    /**
+     * Returns the history of this run, reading the store on first use.
+     * 
+     * @return the history
+     */
+    /* package */ static synchronized DurationHistory getInstance() {
+        if (instance == null) {
+            final DurationHistory history = new DurationHistory(new File(System.getProperty("testlink.history",
+                    "testlink-durations.properties")));
+            TestLinkRun.install();
+            instance = history;
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the durations used to partition test classes among forks: the seed, read-only, or the history of this run
+     * if no seed is set.
+     * 
+     * @return the durations
+     */
+    /* package */ static DurationHistory getSeed() {
+        final String seed = System.getProperty("testlink.history.seed");
+        if (seed == null) {
+            LOGGER.log(Level.WARNING, "No testlink.history.seed set, forks reading the history while another fork "
+                    + "saves it may compute different partitions");
+            return getInstance();
+        }
+        // nothing is recorded in the seed, so it is never saved
+        return new DurationHistory(new File(seed));
+    }
+
+    /**
+     * Saves the history of this run, if it was used.
+     */
+    /* package */ static void saveInstance() {
+        final DurationHistory history;
+        synchronized (DurationHistory.class) {
+            history = instance;
+        }
+        if (history != null) {
+            history.save();
+        }
+    }
+
+    /**
+     * Records the duration of a test method run. The duration of its class is the sum of its methods.
+     * 
+     * @param className the test class name
+     * @param methodName the test method name
+     * @param millis the duration, in milliseconds
+     */
+    /* package */ synchronized void record(String className, String methodName, long millis) {
+        add(className + '#' + methodName, millis);
+        add(className, millis);
+    }
+
+    /**
+     * Returns the known duration of a test class.
+     * 
+     * @param className the test class name
+     * @return the duration in milliseconds, or <code>null</code> if the class never ran
+     */
+    /* package */ synchronized Long getDuration(String className) {
+        return durations.get(className);
+    }
+
+    /**
+     * Merges the durations recorded in this run into the store.
+     */
+    /* package */ void save() {
+        final Map<String, Long> run;
+        synchronized (this) {
+            if (recorded.isEmpty()) {
+                return;
+            }
+            run = new HashMap<String, Long>(recorded);
+        }
+
+        try {
+            PropertiesStore.update(file, new PropertiesStore.Merge() {
+                public void merge(Properties properties) {
+                    for (Map.Entry<String, Long> entry : run.entrySet()) {
+                        final String previous = properties.getProperty(entry.getKey());
+                        long millis = entry.getValue();
+                        if (previous != null) {
+                            millis = Math.round(Long.parseLong(previous) * (1 - WEIGHT) + millis * WEIGHT);
+                        }
+                        properties.setProperty(entry.getKey(), Long.toString(millis));
+                    }
+                }
+            }, "TestLink Unit test durations, in milliseconds");
+        } catch (IOException ioe) {
+            LOGGER.log(Level.WARNING, "Error saving test durations to " + file, ioe);
+        } catch (NumberFormatException nfe) {
+            LOGGER.log(Level.WARNING, "Invalid test durations in " + file, nfe);
+        }
+    }
+
+    private void add(String key, long millis) {
+        final Long total = recorded.get(key);
+        recorded.put(key, total != null ? total + millis : millis);
+    }
+
+    private static Map<String, Long> toMap(Properties properties) {
+        final Map<String, Long> map = new HashMap<String, Long>();
+        for (String key : properties.stringPropertyNames()) {
+            try {
+                map.put(key, Long.valueOf(properties.getProperty(key)));
+            } catch (NumberFormatException nfe) {
+                LOGGER.log(Level.FINE, "Ignoring invalid test duration for " + key, nfe);
+            }
+        }
+        return map;
+    }
+}
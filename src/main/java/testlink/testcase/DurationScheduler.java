@@ -0,0 +1,175 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Schedules test classes using the durations recorded by {@link TestLinkTestCase}.
+ * 
+ * <p>
+ * Classes are ordered longest first, and assigned to forks with the longest processing time first heuristic: each
+ * class goes to the fork with the smallest total so far. Classes that never ran are given the average duration of the
+ * known ones. The result only depends on the classes and on the history, so every fork reading the same history
+ * computes the same partition. Forks partition using the seed of the history, see {@link DurationHistory}, and can
+ * compare the {@link #fingerprint(List) fingerprint} of their partitions.
+ * </p>
+ * 
+ * @since 0.1
+ * @see TestLinkSuite
+ */
+public final class DurationScheduler {
+
+    private DurationScheduler() {
+    }
+
+    /**
+     * Orders test classes longest first.
+     * 
+     * @param classes the test classes
+     * @return the test classes, longest first
+     */
+    public static List<Class<?>> order(Collection<Class<?>> classes) {
+        return order(classes, DurationHistory.getInstance());
+    }
+
+    /* package */ static List<Class<?>> order(Collection<Class<?>> classes, DurationHistory history) {
+        final Map<Class<?>, Long> estimates = estimate(classes, history);
+        final List<Class<?>> ordered = new ArrayList<Class<?>>(classes);
+        Collections.sort(ordered, new Comparator<Class<?>>() {
+            public int compare(Class<?> a, Class<?> b) {
+                final int byDuration = estimates.get(b).compareTo(estimates.get(a));
+                return byDuration != 0 ? byDuration : a.getName().compareTo(b.getName());
+            }
+        });
+        return ordered;
+    }
+
+    /**
+     * Partitions test classes among forks so that the forks finish as close together as possible.
+     * 
+     * @param classes the test classes
+     * @param forks the number of forks
+     * @return one list of test classes per fork, each one longest first
+     * @throws IllegalArgumentException if the number of forks is less than one
+     */
+    public static List<List<Class<?>>> partition(Collection<Class<?>> classes, int forks) {
+        return partition(classes, forks, DurationHistory.getSeed());
+    }
+
+    /* package */ static List<List<Class<?>>> partition(Collection<Class<?>> classes, int forks,
+            DurationHistory history) {
+        if (forks < 1) {
+            throw new IllegalArgumentException("Invalid number of forks: " + forks);
+        }
+
+        final Map<Class<?>, Long> estimates = estimate(classes, history);
+        final List<List<Class<?>>> partition = new ArrayList<List<Class<?>>>(forks);
+        final PriorityQueue<Fork> queue = new PriorityQueue<Fork>(forks);
+        for (int i = 0; i < forks; i++) {
+            partition.add(new ArrayList<Class<?>>());
+            queue.add(new Fork(i));
+        }
+
+        for (Class<?> testClass : order(classes, history)) {
+            final Fork fork = queue.poll();
+            partition.get(fork.index).add(testClass);
+            fork.load += estimates.get(testClass);
+            queue.add(fork);
+        }
+
+        return partition;
+    }
+
+    /**
+     * Returns a short digest of a partition. Forks that computed the same partition get the same fingerprint.
+     * 
+     * @param partition one list of test classes per fork
+     * @return the fingerprint
+     */
+    public static String fingerprint(List<List<Class<?>>> partition) {
+        final StringBuilder names = new StringBuilder();
+        for (List<Class<?>> fork : partition) {
+            for (Class<?> testClass : fork) {
+                names.append(testClass.getName()).append(',');
+            }
+            names.append(';');
+        }
+        // String hash codes are the same in every JVM
+        return String.format("%08x", names.toString().hashCode());
+    }
+
+    /**
+     * Returns the estimated duration of each test class.
+     */
+    private static Map<Class<?>, Long> estimate(Collection<Class<?>> classes, DurationHistory history) {
+        final Map<Class<?>, Long> estimates = new HashMap<Class<?>, Long>();
+        long total = 0L;
+        int known = 0;
+        for (Class<?> testClass : classes) {
+            final Long duration = history.getDuration(testClass.getName());
+            if (duration != null) {
+                estimates.put(testClass, duration);
+                total += duration;
+                known++;
+            }
+        }
+
+        final Long unknown = known > 0 ? total / known : 1L;
+        for (Class<?> testClass : classes) {
+            if (!estimates.containsKey(testClass)) {
+                estimates.put(testClass, unknown);
+            }
+        }
+        return estimates;
+    }
+
+    /**
+     * A fork and the total duration of the classes assigned to it.
+     */
+    private static final class Fork implements Comparable<Fork> {
+
+        private final int index;
+
+        private long load = 0L;
+
+        private Fork(int index) {
+            this.index = index;
+        }
+
+        public int compareTo(Fork other) {
+            if (load != other.load) {
+                return load < other.load ? -1 : 1;
+            }
+            return index < other.index ? -1 : (index == other.index ? 0 : 1);
+        }
+    }
+}
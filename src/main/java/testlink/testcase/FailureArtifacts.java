@@ -0,0 +1,413 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Collects artifacts of failed tests and uploads them to their TestLink executions.
+ * 
+ * <p>
+ * Configured with the following system properties:
+ * </p>
+ * <ul>
+ * <li><code>testlink.artifacts.files</code>: comma separated files or glob patterns, e.g.
+ * <code>target/app.log,target/screenshots/**.png</code>.</li>
+ * <li><code>testlink.artifacts.threaddump</code>: <code>true</code> to include a thread dump.</li>
+ * <li><code>testlink.artifacts.histogram</code>: <code>true</code> to include a heap histogram (HotSpot only).</li>
+ * <li><code>testlink.artifacts.maxsize</code>: larger files are left out, in bytes. Default 10 MB.</li>
+ * <li><code>testlink.artifacts.maxtotal</code>: maximum bytes compressed per failure. Default 50 MB.</li>
+ * <li><code>testlink.artifacts.threads</code>: worker threads, default 2.</li>
+ * <li><code>testlink.artifacts.queue</code>: tasks waiting for a worker, default 16. Each failure queues one task to
+ * collect its artifacts and one to upload them. Further failures get no artifacts.</li>
+ * </ul>
+ * 
+ * <p>
+ * The artifacts must show the state at the time of the failure, not once the result is reported. The thread dump is
+ * taken on the test thread. The heap histogram and the files are collected and compressed into a zip file by a worker
+ * queued at the time of the failure, so the test thread does not wait for them. Only the upload waits for the
+ * execution ID, and is queued once the execution of the test class is reported. At the end of the run, pending work
+ * is given what is left of the time allowed by {@link TestLinkRun}, before the attachment index is saved.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ * 
+ * @since 0.1
+ */
+final class FailureArtifacts {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(FailureArtifacts.class.getName());
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String[] FILES = StringUtils.split(System.getProperty("testlink.artifacts.files", ""), ',');
+
+    private static final boolean THREAD_DUMP = Boolean.getBoolean("testlink.artifacts.threaddump");
+
+    private static final boolean HISTOGRAM = Boolean.getBoolean("testlink.artifacts.histogram");
+
+    private static final long MAX_SIZE = Long.parseLong(System.getProperty("testlink.artifacts.maxsize", "10485760"));
+
+    private static final long MAX_TOTAL = Long.parseLong(System.getProperty("testlink.artifacts.maxtotal", "52428800"));
+
+    /**
+     * Workers compressing and uploading artifacts.
+     */
+    private static final ThreadPoolExecutor WORKERS = createWorkers();
+
+    private FailureArtifacts() {
+    }
+
+    /**
+     * @return <code>true</code> if any artifact is configured, <code>false</code> otherwise
+     */
+    /* package */ static boolean isEnabled() {
+        return FILES.length > 0 || THREAD_DUMP || HISTOGRAM;
+    }
+
+    /**
+     * Takes the artifacts of a failed test: the thread dump now, the rest in the background right away.
+     * 
+     * @param testName the name of the failed test
+     * @return the artifacts to upload once the execution is reported
+     */
+    /* package */ static Snapshot capture(final String testName) {
+        final String threadDump = THREAD_DUMP ? threadDump() : null;
+        try {
+            return new Snapshot(testName, WORKERS.submit(new Callable<File>() {
+                public File call() {
+                    return collect(testName, threadDump);
+                }
+            }));
+        } catch (RejectedExecutionException ree) {
+            LOGGER.log(Level.WARNING, "Too many failures waiting for artifacts, skipping artifacts of " + testName);
+            return new Snapshot(testName, null);
+        }
+    }
+
+    /**
+     * Uploads the artifacts of a failed test in the background.
+     * 
+     * @param site the TestLink site
+     * @param executionId the ID of the reported execution
+     * @param snapshot the artifacts taken at the time of the failure
+     */
+    /* package */ static void upload(final TestLinkSite site, final Integer executionId, final Snapshot snapshot) {
+        if (snapshot.zip == null) {
+            return;
+        }
+        try {
+            // queued after the task collecting the artifacts, so the workers never all wait for a queued task
+            WORKERS.execute(new Runnable() {
+                public void run() {
+                    upload(site, executionId, snapshot.testName, snapshot.zip);
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            LOGGER.log(Level.WARNING, "Too many failures waiting for artifacts, skipping artifacts of "
+                    + snapshot.testName);
+        }
+    }
+
+    /**
+     * Waits for the pending artifacts to be uploaded.
+     * 
+     * @param timeout the maximum time to wait, in milliseconds
+     */
+    /* package */ static void drain(long timeout) {
+        WORKERS.shutdown();
+        try {
+            if (!WORKERS.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                LOGGER.log(Level.WARNING, "Timeout uploading failure artifacts, " + WORKERS.getQueue().size()
+                        + " tasks left");
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Collects the artifacts into a zip file.
+     * 
+     * @return the zip file, or <code>null</code> if there is no artifact
+     */
+    private static File collect(String testName, String threadDump) {
+        File zip = null;
+        try {
+            zip = File.createTempFile("testlink-artifacts-", ".zip");
+            // in case the execution is never reported
+            zip.deleteOnExit();
+            if (compress(zip, threadDump) > 0) {
+                final File collected = zip;
+                zip = null;
+                return collected;
+            }
+        } catch (IOException ioe) {
+            LOGGER.log(Level.WARNING, "Error collecting artifacts of " + testName, ioe);
+        } finally {
+            if (zip != null) {
+                zip.delete();
+            }
+        }
+        return null;
+    }
+
+    private static void upload(TestLinkSite site, Integer executionId, String testName, Future<File> collecting) {
+        File zip = null;
+        try {
+            zip = collecting.get();
+            if (zip != null) {
+                site.uploadAttachment(zip, executionId, "Failure artifacts", "Artifacts collected when " + testName
+                        + " failed", testName + "-artifacts.zip", "application/zip");
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ee) {
+            LOGGER.log(Level.WARNING, "Error collecting artifacts of " + testName, ee.getCause());
+        } catch (RuntimeException re) {
+            LOGGER.log(Level.WARNING, "Error uploading artifacts of " + testName, re);
+        } finally {
+            if (zip != null) {
+                zip.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes the artifacts to a zip file.
+     * 
+     * @return the number of artifacts written
+     */
+    private static int compress(File zip, String threadDump) throws IOException {
+        int entries = 0;
+        final ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zip)));
+        try {
+            if (threadDump != null) {
+                write(out, "thread-dump.txt", threadDump);
+                entries++;
+            }
+            if (HISTOGRAM) {
+                final String histogram = heapHistogram();
+                if (histogram != null) {
+                    write(out, "heap-histogram.txt", histogram);
+                    entries++;
+                }
+            }
+
+            long total = 0L;
+            final Set<String> names = new HashSet<String>();
+            for (Path file : findFiles(FILES)) {
+                final long size = Files.size(file);
+                if (size > MAX_SIZE || total + size > MAX_TOTAL) {
+                    LOGGER.log(Level.INFO, "Artifact too large, skipping " + file + " (" + size + " bytes)");
+                    continue;
+                }
+                final String name = entryName(file);
+                if (!names.add(name)) {
+                    continue;
+                }
+                out.putNextEntry(new ZipEntry(name));
+                Files.copy(file, out);
+                out.closeEntry();
+                total += size;
+                entries++;
+            }
+        } finally {
+            out.close();
+        }
+        return entries;
+    }
+
+    private static void write(ZipOutputStream out, String name, String content) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content.getBytes(UTF8));
+        out.closeEntry();
+    }
+
+    /**
+     * Returns the files matching files and glob patterns.
+     * 
+     * @param patterns the files and glob patterns, relative to the working directory or absolute
+     * @return the matching files
+     * @throws IOException if a directory cannot be walked
+     */
+    /* package */ static List<Path> findFiles(String[] patterns) throws IOException {
+        final List<Path> files = new ArrayList<Path>();
+        for (String pattern : patterns) {
+            pattern = pattern.trim();
+            final int glob = StringUtils.indexOfAny(pattern, "*?[{");
+            if (glob < 0) {
+                final Path file = Paths.get(pattern);
+                if (Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+                continue;
+            }
+
+            // walk from the deepest directory without wildcards
+            final int separator = Math.max(pattern.lastIndexOf('/', glob), pattern.lastIndexOf(File.separatorChar,
+                    glob));
+            final Path base = Paths.get(separator >= 0 ? pattern.substring(0, separator + 1) : ".");
+            if (!Files.isDirectory(base)) {
+                continue;
+            }
+            final PathMatcher matcher = FileSystems.getDefault().getPathMatcher(
+                    "glob:" + (separator >= 0 ? pattern : "./" + pattern));
+            Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && matcher.matches(file)) {
+                        files.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return files;
+    }
+
+    /**
+     * Returns the zip entry name of a file, relative to the working directory when possible.
+     */
+    private static String entryName(Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        final Path workingDirectory = Paths.get("").toAbsolutePath();
+        if (path.startsWith(workingDirectory)) {
+            path = workingDirectory.relativize(path);
+        } else {
+            path = path.getFileName();
+        }
+        return path.toString().replace(File.separatorChar, '/');
+    }
+
+    private static String threadDump() {
+        final StringBuilder dump = new StringBuilder();
+        for (Map.Entry<Thread, StackTraceElement[]> entry : Thread.getAllStackTraces().entrySet()) {
+            final Thread thread = entry.getKey();
+            dump.append('"').append(thread.getName()).append("\" ").append(thread.isDaemon() ? "daemon " : "")
+                    .append(thread.getState()).append('\n');
+            for (StackTraceElement element : entry.getValue()) {
+                dump.append("\tat ").append(element).append('\n');
+            }
+            dump.append('\n');
+        }
+        return dump.toString();
+    }
+
+    /**
+     * Returns the heap histogram from the HotSpot diagnostic command, or <code>null</code> if not available.
+     */
+    private static String heapHistogram() {
+        try {
+            return (String) ManagementFactory.getPlatformMBeanServer().invoke(
+                    new ObjectName("com.sun.management:type=DiagnosticCommand"), "gcClassHistogram",
+                    new Object[] { new String[0] }, new String[] { String[].class.getName() });
+        } catch (JMException jme) {
+            LOGGER.log(Level.FINE, "Heap histogram not available", jme);
+            return null;
+        }
+    }
+
+    private static ThreadPoolExecutor createWorkers() {
+        final int threads = Math.max(1, Integer.parseInt(System.getProperty("testlink.artifacts.threads", "2")));
+        final int queue = Math.max(1, Integer.parseInt(System.getProperty("testlink.artifacts.queue", "16")));
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadPoolExecutor workers = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queue), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "testlink-artifacts-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+        workers.allowCoreThreadTimeOut(true);
+        TestLinkRun.install();
+        return workers;
+    }
+
+    /**
+     * Artifacts taken at the time of a failure.
+     */
+    /* package */ static final class Snapshot {
+
+        private final String testName;
+
+        /**
+         * The zip file being collected, or <code>null</code> if the workers were too busy.
+         */
+        private final Future<File> zip;
+
+        private Snapshot(String testName, Future<File> zip) {
+            this.testName = testName;
+            this.zip = zip;
+        }
+    }
+}
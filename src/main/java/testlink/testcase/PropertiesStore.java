@@ -0,0 +1,129 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Properties;
+
+/**
+ * Properties files shared by the forks of a run.
+ * 
+ * <p>
+ * Files are read under a shared lock and updated under an exclusive one, re-reading the file before merging, so that
+ * forks saving at the same time do not lose each other's entries nor read a file being written.
+ * </p>
+ * 
+ * @since 0.1
+ */
+final class PropertiesStore {
+
+    /**
+     * Merges the entries of a run into the entries read from the file.
+     */
+    /* package */ interface Merge {
+
+        /**
+         * @param properties the entries read from the file, updated in place
+         */
+        void merge(Properties properties);
+    }
+
+    private PropertiesStore() {
+    }
+
+    /**
+     * Reads a properties file.
+     * 
+     * @param file the file
+     * @return the properties, empty if the file does not exist
+     * @throws IOException if the file cannot be read
+     */
+    /* package */ static Properties load(File file) throws IOException {
+        if (!file.isFile()) {
+            return new Properties();
+        }
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final FileLock lock = channel.lock(0L, Long.MAX_VALUE, true);
+            try {
+                return read(channel);
+            } finally {
+                lock.release();
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Updates a properties file, creating it if missing.
+     * 
+     * @param file the file
+     * @param merge merges the entries of the run into the entries read from the file
+     * @param comments comments written at the top of the file
+     * @throws IOException if the file cannot be updated
+     */
+    /* package */ static void update(File file, Merge merge, String comments) throws IOException {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create directory " + parent);
+        }
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final FileLock lock = channel.lock();
+            try {
+                // re-read, other forks may have saved meanwhile
+                final Properties properties = read(channel);
+                merge.merge(properties);
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                properties.store(out, comments);
+                channel.truncate(0);
+                channel.write(ByteBuffer.wrap(out.toByteArray()), 0);
+            } finally {
+                lock.release();
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static Properties read(FileChannel channel) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+            // keep reading
+        }
+        final Properties properties = new Properties();
+        properties.load(new ByteArrayInputStream(buffer.array(), 0, buffer.position()));
+        return properties;
+    }
+}
@@ -0,0 +1,72 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+/**
+ * Kinds of requests sent to a TestLink server.
+ * 
+ * <p>
+ * The declaration order is the scheduling priority: when several requests are waiting for the rate limiter of a
+ * server, the one declared first goes first. Result reports are therefore never stuck behind a test specification
+ * synchronization.
+ * </p>
+ * 
+ * @since 0.1
+ * @see TestLinkThrottle
+ */
+enum RequestType {
+
+    /**
+     * Reporting of test execution results.
+     */
+    RESULT(true),
+    /**
+     * Upload of attachments to test executions.
+     */
+    ATTACHMENT(true),
+    /**
+     * Lookup of projects, suites, plans, builds and other metadata.
+     */
+    QUERY(false),
+    /**
+     * Creation and update of the test specification (projects, test cases, requirement links).
+     */
+    SPEC(true);
+
+    /**
+     * Whether the request modifies data on the server.
+     */
+    private final boolean write;
+
+    private RequestType(boolean write) {
+        this.write = write;
+    }
+
+    /**
+     * @return <code>true</code> if the request modifies data on the server, <code>false</code> otherwise
+     */
+    /* package */ boolean isWrite() {
+        return write;
+    }
+}
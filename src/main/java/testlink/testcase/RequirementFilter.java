@@ -0,0 +1,163 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.runner.Description;
+import org.junit.runner.manipulation.Filter;
+
+/**
+ * JUnit filter that runs only the test classes affected by changed requirements.
+ * 
+ * <p>
+ * {@link TestLinkSuite} applies it when the <code>testlink.changed.requirements</code> or
+ * <code>testlink.changed.srs</code> system properties are set, to comma separated lists of changed requirement IDs
+ * and SRS IDs. It can also be given to any JUnit runner. Test classes not in the index are added to it as the filter
+ * meets them, so the index alone decides what runs.
+ * </p>
+ * 
+ * @since 0.1
+ * @see RequirementIndex
+ */
+public class RequirementFilter extends Filter {
+
+    /**
+     * The requirement index of the test classes.
+     */
+    private final RequirementIndex index;
+
+    /**
+     * The test classes to run, computed again when a test class is added to the index.
+     */
+    private Set<Class<?>> affected;
+
+    /**
+     * The IDs of the changed requirements.
+     */
+    private final Set<String> requirements;
+
+    /**
+     * The IDs of the changed SRS.
+     */
+    private final Set<String> srs;
+
+    /**
+     * Creates a filter for changed requirements.
+     * 
+     * @param index the requirement index of the test classes
+     * @param requirements the IDs of the changed requirements
+     * @param srs the IDs of the changed SRS
+     */
+    public RequirementFilter(RequirementIndex index, Collection<String> requirements, Collection<String> srs) {
+        this.index = index;
+        this.affected = index.getAffectedTestClasses(requirements, srs);
+        this.requirements = new LinkedHashSet<String>(requirements);
+        this.srs = new LinkedHashSet<String>(srs);
+    }
+
+    /**
+     * Creates a filter for the changes listed in the system properties.
+     * 
+     * @param index the requirement index of the test classes
+     * @return the filter, or <code>null</code> if no change is listed
+     */
+    public static RequirementFilter fromSystemProperties(RequirementIndex index) {
+        final String requirements = System.getProperty("testlink.changed.requirements");
+        final String srs = System.getProperty("testlink.changed.srs");
+        if (StringUtils.isEmpty(requirements) && StringUtils.isEmpty(srs)) {
+            return null;
+        }
+        return new RequirementFilter(index, split(requirements), split(srs));
+    }
+
+    /**
+     * Keeps the affected test classes.
+     * 
+     * @param testClasses the test classes
+     * @return the affected test classes, in the same order
+     */
+    public List<Class<?>> select(Collection<Class<?>> testClasses) {
+        final List<Class<?>> selected = new ArrayList<Class<?>>();
+        for (Class<?> testClass : testClasses) {
+            if (isAffected(testClass)) {
+                selected.add(testClass);
+            }
+        }
+        return selected;
+    }
+
+    @Override
+    public boolean shouldRun(Description description) {
+        final List<Description> children = description.getChildren();
+        if (!children.isEmpty()) {
+            // suites and classes run if any of their children does
+            for (Description child : children) {
+                if (shouldRun(child)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return isAffected(description.getTestClass());
+    }
+
+    /**
+     * Test classes are indexed as the filter meets them, and kept if the index tells they are affected.
+     */
+    private synchronized boolean isAffected(Class<?> testClass) {
+        if (testClass == null) {
+            return true;
+        }
+        if (index.add(testClass)) {
+            affected = index.getAffectedTestClasses(requirements, srs);
+        }
+        return affected.contains(testClass);
+    }
+
+    @Override
+    public String describe() {
+        return "test classes covering changed requirements";
+    }
+
+    private static Set<String> split(String list) {
+        if (StringUtils.isEmpty(list)) {
+            return Collections.emptySet();
+        }
+        final Set<String> ids = new LinkedHashSet<String>();
+        for (String id : Arrays.asList(StringUtils.split(list, ','))) {
+            if (StringUtils.isNotBlank(id)) {
+                ids.add(id.trim());
+            }
+        }
+        return ids;
+    }
+}
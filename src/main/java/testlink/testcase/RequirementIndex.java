@@ -0,0 +1,148 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import testlink.annotations.Coverage;
+
+/**
+ * Inverted index from requirements to the test classes covering them, built from {@link Coverage} annotations.
+ * 
+ * <p>
+ * Test classes can be added after the index is built, e.g. by {@link RequirementFilter} as it meets them.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ * 
+ * @since 0.1
+ * @see RequirementFilter
+ */
+public final class RequirementIndex {
+
+    /**
+     * Test classes by requirement ID.
+     */
+    private final Map<String, Set<Class<?>>> byRequirement = new HashMap<String, Set<Class<?>>>();
+
+    /**
+     * Test classes by SRS (requirement specification) ID.
+     */
+    private final Map<String, Set<Class<?>>> bySrs = new HashMap<String, Set<Class<?>>>();
+
+    /**
+     * Test classes without a {@link Coverage} annotation.
+     */
+    private final Set<Class<?>> uncovered = new LinkedHashSet<Class<?>>();
+
+    /**
+     * All the indexed test classes.
+     */
+    private final Set<Class<?>> indexed = new LinkedHashSet<Class<?>>();
+
+    /**
+     * Indexes test classes.
+     * 
+     * @param testClasses the test classes
+     */
+    public RequirementIndex(Collection<Class<?>> testClasses) {
+        for (Class<?> testClass : testClasses) {
+            add(testClass);
+        }
+    }
+
+    /**
+     * Indexes a test class, if not indexed yet.
+     * 
+     * @param testClass the test class
+     * @return <code>true</code> if the test class was not indexed yet
+     */
+    /* package */ synchronized boolean add(Class<?> testClass) {
+        if (!indexed.add(testClass)) {
+            return false;
+        }
+        final Coverage coverage = testClass.getAnnotation(Coverage.class);
+        if (coverage == null) {
+            uncovered.add(testClass);
+            return true;
+        }
+        put(bySrs, coverage.srs(), testClass);
+        for (String requirement : coverage.requirements()) {
+            put(byRequirement, requirement, testClass);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the test classes covering a requirement.
+     * 
+     * @param requirement the requirement ID
+     * @return the test classes, empty if none
+     */
+    public synchronized Set<Class<?>> getTestClasses(String requirement) {
+        final Set<Class<?>> testClasses = byRequirement.get(requirement);
+        return testClasses != null ? new LinkedHashSet<Class<?>>(testClasses) : Collections.<Class<?>> emptySet();
+    }
+
+    /**
+     * Returns the test classes affected by changes to requirements. Test classes without a {@link Coverage} annotation
+     * are always affected, as nothing tells what they cover.
+     * 
+     * @param requirements the IDs of the changed requirements
+     * @param srs the IDs of the changed SRS, whose every requirement is considered changed
+     * @return the affected test classes
+     */
+    public synchronized Set<Class<?>> getAffectedTestClasses(Collection<String> requirements, Collection<String> srs) {
+        final Set<Class<?>> affected = new LinkedHashSet<Class<?>>(uncovered);
+        for (String requirement : requirements) {
+            final Set<Class<?>> testClasses = byRequirement.get(requirement);
+            if (testClasses != null) {
+                affected.addAll(testClasses);
+            }
+        }
+        for (String id : srs) {
+            final Set<Class<?>> testClasses = bySrs.get(id);
+            if (testClasses != null) {
+                affected.addAll(testClasses);
+            }
+        }
+        return affected;
+    }
+
+    private static void put(Map<String, Set<Class<?>>> index, String key, Class<?> testClass) {
+        Set<Class<?>> testClasses = index.get(key);
+        if (testClasses == null) {
+            testClasses = new LinkedHashSet<Class<?>>();
+            index.put(key, testClasses);
+        }
+        testClasses.add(testClass);
+    }
+}
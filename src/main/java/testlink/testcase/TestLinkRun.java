@@ -0,0 +1,151 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * End of the test run.
+ * 
+ * <p>
+ * Results are reported to TestLink by a background thread, so that tests do not wait for the server.
+ * </p>
+ * 
+ * <p>
+ * JVM shutdown hooks run concurrently and in no particular order, so the work left when the JVM exits is done by a
+ * single hook, in order: the test classes only partly run are reported, the pending test cases are added to their
+ * test plans, the results are sent, the failure artifacts are uploaded, and only then the attachment index and the
+ * duration history are saved. Sending results and uploading artifacts share <code>testlink.shutdown.timeout</code>
+ * seconds (default 20), less than the 30 seconds Surefire waits for a fork to exit. Results are normally sent during
+ * the run, so the hook has little left to do.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ * 
+ * @since 0.1
+ */
+final class TestLinkRun {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(TestLinkRun.class.getName());
+
+    /**
+     * Whether the shutdown hook is installed.
+     */
+    private static final AtomicBoolean INSTALLED = new AtomicBoolean(false);
+
+    /**
+     * Sends the results, in order.
+     */
+    private static final ThreadPoolExecutor REPORTS = createReports();
+
+    private TestLinkRun() {
+    }
+
+    /**
+     * Installs the shutdown hook, once.
+     */
+    /* package */ static void install() {
+        if (INSTALLED.compareAndSet(false, true)) {
+            Runtime.getRuntime().addShutdownHook(new Thread("testlink-shutdown") {
+                @Override
+                public void run() {
+                    finish();
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends a result report in the background.
+     * 
+     * @param report sends the result to TestLink
+     */
+    /* package */ static void submit(Runnable report) {
+        try {
+            REPORTS.execute(report);
+        } catch (RejectedExecutionException ree) {
+            // the run is over, nobody is waiting anymore
+            report.run();
+        }
+    }
+
+    /**
+     * Completes the run. Each step runs even if the previous one failed.
+     */
+    private static void finish() {
+        try {
+            ClassResult.reportAll();
+        } catch (RuntimeException re) {
+            LOGGER.log(Level.SEVERE, "Error reporting test results", re);
+        }
+        try {
+            TestPlanProvisioner.flushAll();
+        } catch (RuntimeException re) {
+            LOGGER.log(Level.SEVERE, "Error adding test cases to test plans", re);
+        }
+        final long deadline = System.currentTimeMillis()
+                + TimeUnit.SECONDS.toMillis(Long.parseLong(System.getProperty("testlink.shutdown.timeout", "20")));
+        REPORTS.shutdown();
+        try {
+            if (!REPORTS.awaitTermination(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS)) {
+                LOGGER.log(Level.WARNING, "Timeout reporting test results, " + REPORTS.getQueue().size()
+                        + " results not reported");
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            FailureArtifacts.drain(Math.max(0L, deadline - System.currentTimeMillis()));
+        } catch (RuntimeException re) {
+            LOGGER.log(Level.SEVERE, "Error uploading failure artifacts", re);
+        }
+        AttachmentIndex.saveInstance();
+        DurationHistory.saveInstance();
+    }
+
+    private static ThreadPoolExecutor createReports() {
+        final ThreadPoolExecutor reports = new ThreadPoolExecutor(1, 1, 30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "testlink-reports");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        reports.allowCoreThreadTimeOut(true);
+        return reports;
+    }
+}
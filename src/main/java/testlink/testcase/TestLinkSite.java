@@ -27,24 +27,46 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
 
+import testlink.testcase.TestLinkThrottle.Permit;
 import br.eti.kinoshita.testlinkjavaapi.TestLinkAPI;
 import br.eti.kinoshita.testlinkjavaapi.constants.ActionOnDuplicate;
+import br.eti.kinoshita.testlinkjavaapi.constants.ExecutionStatus;
 import br.eti.kinoshita.testlinkjavaapi.constants.ExecutionType;
 import br.eti.kinoshita.testlinkjavaapi.constants.ResponseDetails;
 import br.eti.kinoshita.testlinkjavaapi.constants.TestImportance;
 import br.eti.kinoshita.testlinkjavaapi.model.Attachment;
+import br.eti.kinoshita.testlinkjavaapi.model.Build;
 import br.eti.kinoshita.testlinkjavaapi.model.CustomField;
+import br.eti.kinoshita.testlinkjavaapi.model.Platform;
+import br.eti.kinoshita.testlinkjavaapi.model.ReportTCResultResponse;
 import br.eti.kinoshita.testlinkjavaapi.model.Requirement;
 import br.eti.kinoshita.testlinkjavaapi.model.TestCase;
 import br.eti.kinoshita.testlinkjavaapi.model.TestCaseStep;
+import br.eti.kinoshita.testlinkjavaapi.model.TestPlan;
 import br.eti.kinoshita.testlinkjavaapi.model.TestProject;
 import br.eti.kinoshita.testlinkjavaapi.model.TestSuite;
 import br.eti.kinoshita.testlinkjavaapi.util.TestLinkAPIException;
@@ -57,26 +79,67 @@ import br.eti.kinoshita.testlinkjavaapi.util.TestLinkAPIException;
  * </p>
  * 
  * <p>
- * This class is thread safe and not serializable
+ * The connection is opened on first use, or in the background by {@link #warmUp()}. Sites are shared by server and
+ * developer key, see {@link #forServer(String, String)}.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe and not serializable. It is not final so that tests can replace TestLink.
  * </p>
  * 
  * @author mcaste00
  * @since 0.1
  */
-final class TestLinkSite {
+class TestLinkSite {
     
     /**
      * Logger.
      */
     private static final Logger LOGGER = Logger.getLogger(TestLinkSite.class.getName());
+
+    /**
+     * Sites by server URL and developer key.
+     */
+    private static final ConcurrentMap<String, TestLinkSite> SITES = new ConcurrentHashMap<String, TestLinkSite>();
+
+    /**
+     * Runs warm-ups and health checks, off the test threads.
+     */
+    private static final ExecutorService BACKGROUND = createBackground();
     
     /**
-     * TestLink API. Used to communicate with TestLink.
+     * TestLink API. Used to communicate with TestLink. Created on first use, by whichever thread comes first, and
+     * created again by the next caller if that failed.
+     */
+    private final AtomicReference<Connection> api = new AtomicReference<Connection>();
+
+    /**
+     * Creates the TestLink API.
      */
-    private TestLinkAPI api = null;
+    private final Callable<TestLinkAPI> connector;
+
+    /**
+     * Test projects, fetched on first use.
+     */
+    private volatile TestProject[] testProjects = null;
+
+    /**
+     * The warm-up, or <code>null</code> if not started.
+     */
+    private Future<?> warmUp = null;
+
+    /**
+     * Address to the TestLink server.
+     */
+    private final String url;
+
+    /**
+     * Rate limiter shared by all clients of the TestLink server.
+     */
+    private final TestLinkThrottle throttle;
     
     /**
-     * Create an instance of the TestLink Java API.
+     * Prepare an instance of the TestLink Java API, created on first use.
      * 
      * <p>
      * URL format is: <code>http://&lt;server&gt;:&lt;port&gt;/testlink/lib/api/xmlrpc.php</code>
@@ -84,21 +147,156 @@ final class TestLinkSite {
      * 
      * @param url address to the TestLink server
      * @param devKey developer key to the TestLink server
-     * @throws RuntimeException if there is a problem with TestLink URL or creating its API obejct
+     * @throws RuntimeException if there is a problem with TestLink URL
      */
     /* package */ TestLinkSite(String url, String devKey) {
-        // if there is no connection active at the moment
-        if (api == null) {
+        this(url, connector(url, devKey));
+    }
+
+    /**
+     * Prepare a site whose TestLink API is created by a connector, on first use.
+     * 
+     * @param url address to the TestLink server
+     * @param connector creates the TestLink API
+     */
+    /* package */ TestLinkSite(String url, Callable<TestLinkAPI> connector) {
+        this.url = url;
+        this.connector = connector;
+        throttle = TestLinkThrottle.forServer(url);
+        // create the TestLink API when first needed
+        api.set(newConnection());
+    }
+
+    private static Callable<TestLinkAPI> connector(String url, final String devKey) {
+        final URL testlinkURL;
+        try {
+            // get TestLink URL
+            testlinkURL = new URL(url);
+        } catch (MalformedURLException mue) {
+            LOGGER.log(Level.SEVERE, "Impossible to establish a connection to the TestLink server. "
+                    + "Check the parameters of the [" + TestLinkSite.class.getName() + "] class", mue);
+            throw new RuntimeException("Connection problems with TestLink: " + mue.getMessage(), mue);
+        }
+        return new Callable<TestLinkAPI>() {
+            public TestLinkAPI call() {
+                return new TestLinkAPI(testlinkURL, devKey);
+            }
+        };
+    }
+
+    /**
+     * Returns the site shared by all clients of a TestLink server using the same developer key.
+     * 
+     * @param url address to the TestLink server
+     * @param devKey developer key to the TestLink server
+     * @return the site
+     * @throws RuntimeException if there is a problem with TestLink URL
+     */
+    /* package */ static TestLinkSite forServer(String url, String devKey) {
+        final String key = url + '\n' + devKey;
+        TestLinkSite site = SITES.get(key);
+        if (site == null) {
+            final TestLinkSite created = new TestLinkSite(url, devKey);
+            site = SITES.putIfAbsent(key, created);
+            if (site == null) {
+                site = created;
+            }
+        }
+        return site;
+    }
+
+    /**
+     * Warms up the site configured in the <code>testlink.url</code> and <code>testlink.devkey</code> system properties,
+     * if any.
+     */
+    /* package */ static void warmUpConfigured() {
+        final String url = System.getProperty("testlink.url");
+        final String devKey = System.getProperty("testlink.devkey");
+        if (StringUtils.isNotEmpty(url) && StringUtils.isNotEmpty(devKey)) {
+            try {
+                forServer(url, devKey).warmUp();
+            } catch (RuntimeException re) {
+                LOGGER.log(Level.FINE, "Not warming up connection to TestLink: " + url, re);
+            }
+        }
+    }
+
+    /**
+     * Opens the connection and fetches the test projects in the background, so that the first test does not wait for
+     * them. Only the first call starts a warm-up.
+     * 
+     * @return the warm-up, done once the site is ready
+     */
+    /* package */ synchronized Future<?> warmUp() {
+        if (warmUp != null) {
+            return warmUp;
+        }
+        warmUp = BACKGROUND.submit(new Runnable() {
+            public void run() {
+                try {
+                    fetchTestProjects();
+                    LOGGER.log(Level.FINE, "Connected to TestLink: " + url);
+                } catch (RuntimeException re) {
+                    // tests will get the error when they use the site
+                    LOGGER.log(Level.FINE, "Error warming up connection to TestLink: " + url, re);
+                }
+            }
+        });
+        return warmUp;
+    }
+
+    /**
+     * Ping the connection of the TestLink API instance, in the background.
+     * 
+     * @return <code>true</code> once TestLink answered, <code>false</code> if it could not be reached
+     */
+    /* package */ Future<Boolean> pingTestLink() {
+        return BACKGROUND.submit(new Callable<Boolean>() {
+            public Boolean call() {
+                try {
+                    final String answer = TestLinkSite.this.call(RequestType.QUERY, new Callable<String>() {
+                        public String call() {
+                            return api().ping();
+                        }
+                    });
+                    if (LOGGER.isLoggable(Level.FINEST)) {
+                        LOGGER.log(Level.FINEST, "Answer to ping is: " + answer);
+                    }
+                    return Boolean.TRUE;
+                } catch (RuntimeException re) {
+                    LOGGER.log(Level.WARNING, "TestLink did not answer to ping: " + url, re);
+                    return Boolean.FALSE;
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the TestLink API, connecting if nobody did yet. If connecting failed in another thread, e.g. in the
+     * warm-up, the caller tries once more before giving up.
+     * 
+     * @return the TestLink API
+     * @throws RuntimeException if there is a problem creating the TestLink API object
+     */
+    /* package */ TestLinkAPI api() {
+        boolean retried = false;
+        while (true) {
+            final Connection connection = api.get();
+            // no-op if already run or running in another thread
+            connection.run();
             try {
-                // get TestLink URL
-                final URL testlinkURL = new URL(url);
-                // create the TestLink API
-                api = new TestLinkAPI(testlinkURL, devKey);
-            } catch (MalformedURLException mue) {
-                LOGGER.log(Level.SEVERE, "Impossible to establish a connection to the TestLink server. "
-                        + "Check the parameters of the [" + this.getClass().getName() + "] class", mue);
-                throw new RuntimeException("Connection problems with TestLink: " + mue.getMessage(), mue);
-            } catch (TestLinkAPIException te) {
+                return connection.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while connecting to TestLink", ie);
+            } catch (ExecutionException ee) {
+                // only successful connections are kept, the next caller tries again
+                api.compareAndSet(connection, newConnection());
+                if (!retried && connection.failedIn != Thread.currentThread()) {
+                    retried = true;
+                    continue;
+                }
+                final Throwable te = ee.getCause();
                 LOGGER.log(Level.SEVERE, "Impossible to instantiate TestLink API", te);
                 throw new RuntimeException("Internal error when creating TestLink API: " + te.getMessage(), te);
             }
@@ -106,10 +304,37 @@ final class TestLinkSite {
     }
 
     /**
-     * Ping the connection of the TestLink API instance
+     * @return a task creating the TestLink API, throttled like any other request to the server
+     */
+    private Connection newConnection() {
+        return new Connection(new Callable<TestLinkAPI>() {
+            public TestLinkAPI call() {
+                return TestLinkSite.this.call(RequestType.QUERY, connector);
+            }
+        });
+    }
+
+    /**
+     * Sends a request to TestLink through the throttle of the server, which measures it.
+     * 
+     * @param type the type of the request
+     * @param request the request, only throwing unchecked exceptions
+     * @return the answer of TestLink
      */
-    /* package */ void pingTestLink() {
-        LOGGER.log(Level.FINEST, "Answer to ping is: " + api.ping());
+    private <T> T call(RequestType type, Callable<T> request) {
+        final Permit permit = throttle.acquire(type);
+        try {
+            return request.call();
+        } catch (RuntimeException re) {
+            permit.fail(re);
+            throw re;
+        } catch (Exception e) {
+            final RuntimeException re = new RuntimeException(e.getMessage(), e);
+            permit.fail(re);
+            throw re;
+        } finally {
+            permit.release();
+        }
     }
 
     /**
@@ -119,26 +344,55 @@ final class TestLinkSite {
      * @return the test project associated object
      */
     /* package */ TestProject getTestProject(String testProjectName) {
-        TestProject[] testProjects = api.getProjects();
+        TestProject testProject = findTestProject(testProjects, testProjectName);
+        if (testProject == null) {
+            // not fetched yet, or created since the projects were fetched
+            testProject = findTestProject(fetchTestProjects(), testProjectName);
+        }
+        return testProject;
+    }
 
-        for (TestProject testProject : testProjects) {
-            String name = testProject.getName();
-            if (name.equals(testProjectName)) {
-                return testProject;
+    private static TestProject findTestProject(TestProject[] testProjects, String testProjectName) {
+        if (testProjects != null) {
+            for (TestProject testProject : testProjects) {
+                String name = testProject.getName();
+                if (name.equals(testProjectName)) {
+                    return testProject;
+                }
             }
         }
 
         return null;
     }
 
+    /**
+     * Fetches the test projects, caching them.
+     * 
+     * @return the test projects
+     */
+    private TestProject[] fetchTestProjects() {
+        final TestProject[] projects = call(RequestType.QUERY, new Callable<TestProject[]>() {
+            public TestProject[] call() {
+                return api().getProjects();
+            }
+        });
+        testProjects = projects;
+        return projects;
+    }
+
     /**
      * Given a test and list of requirements, binds them together
      * 
      * @param testCaseId the test case where to attach the requirements
      * @param requirements the requirements to be linked to the test case
      */
-    /* package */ void assignRequirements(TestCase testCase, List<Requirement> requirements) {
-        api.assignRequirements(testCase.getId(), testCase.getTestProjectId(), requirements);
+    /* package */ void assignRequirements(final TestCase testCase, final List<Requirement> requirements) {
+        call(RequestType.SPEC, new Callable<Void>() {
+            public Void call() {
+                api().assignRequirements(testCase.getId(), testCase.getTestProjectId(), requirements);
+                return null;
+            }
+        });
     }
 
     /**
@@ -150,12 +404,14 @@ final class TestLinkSite {
      * @param versionNumber the custom field version number
      * @return the custom field
      */
-    /* package */ CustomField getCustomField(Integer testProjectId, Integer testCaseId, String customFieldName,
-            Integer versionNumber) {
-        CustomField customField = api.getTestCaseCustomFieldDesignValue(testCaseId, null, versionNumber, testProjectId,
-                customFieldName, ResponseDetails.FULL);
-
-        return customField;
+    /* package */ CustomField getCustomField(final Integer testProjectId, final Integer testCaseId,
+            final String customFieldName, final Integer versionNumber) {
+        return call(RequestType.QUERY, new Callable<CustomField>() {
+            public CustomField call() {
+                return api().getTestCaseCustomFieldDesignValue(testCaseId, null, versionNumber, testProjectId,
+                        customFieldName, ResponseDetails.FULL);
+            }
+        });
     }
 
     /**
@@ -165,8 +421,12 @@ final class TestLinkSite {
      * @param testSuiteName a test suite name in the first level of the project
      * @return the test suite associated object or <code>null</code> if no test suite is found
      */
-    /* package */ TestSuite getTestSuite(Integer testProject, String testSuiteName) {
-        TestSuite[] testSuites = api.getFirstLevelTestSuitesForTestProject(testProject);
+    /* package */ TestSuite getTestSuite(final Integer testProject, String testSuiteName) {
+        final TestSuite[] testSuites = call(RequestType.QUERY, new Callable<TestSuite[]>() {
+            public TestSuite[] call() {
+                return api().getFirstLevelTestSuitesForTestProject(testProject);
+            }
+        });
 
         for (TestSuite testSuite : testSuites) {
             String name = testSuite.getName();
@@ -255,15 +515,242 @@ final class TestLinkSite {
      * @param actionOnDuplicatedName An action in case of duplicate names
      * @return Test Case
      */
-    /* package */ TestCase createTestCaseWithSteps(String testCaseName, Integer testSuiteId, Integer testProjectId,
-            String authorLogin, String summary, List<TestCaseStep> steps, String preconditions,
-            TestImportance importance, ExecutionType executionType, Integer order, Integer internalId,
-            boolean checkDuplicatedName, ActionOnDuplicate actionOnDuplicatedName) {
-        TestCase testCase = api.createTestCase(testCaseName, testSuiteId, testProjectId, authorLogin, summary, steps,
-                preconditions, importance, executionType, order, internalId, checkDuplicatedName,
-                actionOnDuplicatedName);
+    /* package */ TestCase createTestCaseWithSteps(final String testCaseName, final Integer testSuiteId,
+            final Integer testProjectId, final String authorLogin, final String summary,
+            final List<TestCaseStep> steps, final String preconditions, final TestImportance importance,
+            final ExecutionType executionType, final Integer order, final Integer internalId,
+            final boolean checkDuplicatedName, final ActionOnDuplicate actionOnDuplicatedName) {
+        return call(RequestType.SPEC, new Callable<TestCase>() {
+            public TestCase call() {
+                return api().createTestCase(testCaseName, testSuiteId, testProjectId, authorLogin, summary, steps,
+                        preconditions, importance, executionType, order, internalId, checkDuplicatedName,
+                        actionOnDuplicatedName);
+            }
+        });
+    }
+
+    /**
+     * Given a test plan name returns its associated object.
+     * 
+     * @param testPlanName the test plan name
+     * @param testProjectName the name of the test project of the plan
+     * @return the test plan or <code>null</code> if no test plan is found
+     */
+    /* package */ TestPlan getTestPlan(final String testPlanName, final String testProjectName) {
+        try {
+            return call(RequestType.QUERY, new Callable<TestPlan>() {
+                public TestPlan call() {
+                    return api().getTestPlanByName(testPlanName, testProjectName);
+                }
+            });
+        } catch (TestLinkAPIException e) {
+            if (e.getCause() != null) {
+                throw e;
+            }
+            // TestLink reports missing plans as errors
+            LOGGER.log(Level.FINE, "Test plan not found: " + testPlanName, e);
+            return null;
+        }
+    }
+
+    /**
+     * Create a new active and public test plan on TestLink.
+     * 
+     * @param testPlanName the test plan name
+     * @param testProjectName the name of the test project of the plan
+     * @param notes test plan description
+     * @return the test plan
+     */
+    /* package */ TestPlan createTestPlan(final String testPlanName, final String testProjectName,
+            final String notes) {
+        return call(RequestType.SPEC, new Callable<TestPlan>() {
+            public TestPlan call() {
+                return api().createTestPlan(testPlanName, testProjectName, notes, Boolean.TRUE, Boolean.TRUE);
+            }
+        });
+    }
+
+    /**
+     * Given a build name returns its associated object.
+     * 
+     * @param testPlanId the test plan ID
+     * @param buildName the build name
+     * @return the build or <code>null</code> if no build is found
+     */
+    /* package */ Build getBuild(final Integer testPlanId, String buildName) {
+        final Build[] builds = call(RequestType.QUERY, new Callable<Build[]>() {
+            public Build[] call() {
+                return api().getBuildsForTestPlan(testPlanId);
+            }
+        });
+
+        if (builds != null) {
+            for (Build build : builds) {
+                if (buildName.equals(build.getName())) {
+                    return build;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Create a new build in a test plan on TestLink.
+     * 
+     * @param testPlanId the test plan ID
+     * @param buildName the build name
+     * @param notes build description
+     * @return the build
+     */
+    /* package */ Build createBuild(final Integer testPlanId, final String buildName, final String notes) {
+        return call(RequestType.SPEC, new Callable<Build>() {
+            public Build call() {
+                return api().createBuild(testPlanId, buildName, notes);
+            }
+        });
+    }
+
+    /**
+     * Given a platform name returns its associated object.
+     * 
+     * @param testPlanId the test plan ID
+     * @param platformName the platform name
+     * @return the platform or <code>null</code> if the platform is not linked to the test plan
+     */
+    /* package */ Platform getPlatform(final Integer testPlanId, String platformName) {
+        final Platform[] platforms;
+        try {
+            platforms = call(RequestType.QUERY, new Callable<Platform[]>() {
+                public Platform[] call() {
+                    return api().getTestPlanPlatforms(testPlanId);
+                }
+            });
+        } catch (TestLinkAPIException e) {
+            if (e.getCause() != null) {
+                throw e;
+            }
+            // TestLink reports plans without platforms as errors
+            LOGGER.log(Level.FINE, "No platforms found for test plan: " + testPlanId, e);
+            return null;
+        }
+
+        if (platforms != null) {
+            for (Platform platform : platforms) {
+                if (platformName.equals(platform.getName())) {
+                    return platform;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the IDs of the test cases already added to a test plan, for a platform.
+     * 
+     * @param testPlanId the test plan ID
+     * @param platformId the platform ID, or <code>null</code> for no platform
+     * @return the test case IDs, empty if the plan has no test cases
+     */
+    /* package */ Set<Integer> getTestCaseIdsInTestPlan(final Integer testPlanId, Integer platformId) {
+        final TestCase[] testCases;
+        try {
+            testCases = call(RequestType.QUERY, new Callable<TestCase[]>() {
+                public TestCase[] call() {
+                    return api().getTestCasesForTestPlan(testPlanId, null, null, null, null, null, null, null, null,
+                            Boolean.FALSE, null);
+                }
+            });
+        } catch (TestLinkAPIException e) {
+            if (e.getCause() != null) {
+                throw e;
+            }
+            // TestLink reports empty plans as errors
+            LOGGER.log(Level.FINE, "No test cases found for test plan: " + testPlanId, e);
+            return new HashSet<Integer>();
+        }
+
+        return getTestCaseIds(testCases, platformId);
+    }
+
+    /**
+     * Returns the IDs of the test cases linked to a platform. A test case is linked once per platform, so a test case
+     * linked to another platform still has to be added.
+     * 
+     * @param testCases test cases of a test plan, or <code>null</code>
+     * @param platformId the platform ID, or <code>null</code> for no platform
+     * @return the test case IDs
+     */
+    /* package */ static Set<Integer> getTestCaseIds(TestCase[] testCases, Integer platformId) {
+        final Set<Integer> testCaseIds = new HashSet<Integer>();
+        if (testCases != null) {
+            for (TestCase testCase : testCases) {
+                final Platform platform = testCase.getPlatform();
+                final Integer linkedTo = platform != null ? platform.getId() : null;
+                if (platformId == null || platformId.equals(linkedTo)) {
+                    testCaseIds.add(testCase.getId());
+                }
+            }
+        }
+        return testCaseIds;
+    }
+
+    /**
+     * Returns the latest version of a test case.
+     * 
+     * @param testCaseId the test case ID
+     * @return the version number, or <code>null</code> if TestLink does not tell
+     */
+    /* package */ Integer getTestCaseVersion(final Integer testCaseId) {
+        final TestCase testCase = call(RequestType.QUERY, new Callable<TestCase>() {
+            public TestCase call() {
+                return api().getTestCase(testCaseId, null, null);
+            }
+        });
+        return testCase != null ? testCase.getVersion() : null;
+    }
+
+    /**
+     * Add a test case to a test plan.
+     * 
+     * @param testProjectId the test project ID
+     * @param testPlanId the test plan ID
+     * @param testCaseId the test case ID
+     * @param version the test case version
+     * @param platformId the platform ID, or <code>null</code>
+     */
+    /* package */ void addTestCaseToTestPlan(final Integer testProjectId, final Integer testPlanId,
+            final Integer testCaseId, final Integer version, final Integer platformId) {
+        call(RequestType.SPEC, new Callable<Void>() {
+            public Void call() {
+                api().addTestCaseToTestPlan(testProjectId, testPlanId, testCaseId, version, platformId, null, null);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Report the result of a test case execution.
+     * 
+     * @param testCaseId the test case ID
+     * @param testPlanId the test plan ID
+     * @param buildId the build ID
+     * @param platformId the platform ID, or <code>null</code>
+     * @param status the execution status
+     * @param notes execution notes
+     * @return the execution ID
+     */
+    /* package */ Integer reportResult(final Integer testCaseId, final Integer testPlanId, final Integer buildId,
+            final Integer platformId, final ExecutionStatus status, final String notes) {
+        final ReportTCResultResponse response = call(RequestType.RESULT, new Callable<ReportTCResultResponse>() {
+            public ReportTCResultResponse call() {
+                return api().reportTCResult(testCaseId, null, testPlanId, status, buildId, null, notes, null, null,
+                        platformId, null, null, null);
+            }
+        });
 
-        return testCase;
+        return response.getExecutionId();
     }
 
     /**
@@ -279,25 +766,76 @@ final class TestLinkSite {
      * @param description a description for the attachment
      * @param fileName the file name for the attachment
      * @param fileType MIME file type. I.e: image/jpeg
-     * @return Attachment
+     * @return Attachment, or <code>null</code> if the upload budget of the run is exhausted
      */
     /* package */ Attachment uploadAttachment(File attachmentFile, Integer executionId, String title, String description,
             String fileName, String fileType) {
-        String fileContent = null;
+        final AttachmentIndex index = AttachmentIndex.getInstance();
+        byte[] byteArray = null;
+        String hash;
+        Integer knownId;
 
         try {
-            byte[] byteArray = FileUtils.readFileToByteArray(attachmentFile);
-            fileContent = new String(Base64.encodeBase64(byteArray));
+            // hash without loading the file, it is only read if not uploaded yet
+            hash = AttachmentIndex.hash(attachmentFile);
+            knownId = index.get(url, hash);
+            if (knownId == null) {
+                byteArray = FileUtils.readFileToByteArray(attachmentFile);
+                // hash what is sent, the file may have changed meanwhile
+                hash = AttachmentIndex.hash(byteArray);
+                knownId = index.get(url, hash);
+            }
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Error when trying to read an attachment to be added to a test case", e);
+            return uploadExecutionAttachment(executionId, title, description, fileName, fileType, null);
+        }
+
+        // content already on the server: attach a reference instead of a copy
+        if (knownId != null) {
+            LOGGER.log(Level.FINE, "Attachment " + fileName + " already uploaded as attachment " + knownId);
+            final String reference = "Same content as attachment " + knownId + " (SHA-256 " + hash + ")";
+            return uploadExecutionAttachment(executionId, title, description, fileName + ".ref.txt", "text/plain",
+                    new String(Base64.encodeBase64(reference.getBytes(Charset.forName("UTF-8")))));
         }
 
-        Attachment attachment = api.uploadExecutionAttachment(executionId, title, description, fileName, fileType,
-                fileContent);
+        if (!index.reserve(byteArray.length)) {
+            LOGGER.log(Level.WARNING, "Upload budget exhausted, skipping attachment " + fileName + " of execution "
+                    + executionId);
+            return null;
+        }
+
+        final String fileContent = new String(Base64.encodeBase64(byteArray));
+        Attachment attachment = null;
+        boolean sent = false;
+        try {
+            attachment = uploadExecutionAttachment(executionId, title, description, fileName, fileType, fileContent);
+            sent = true;
+        } finally {
+            if (!sent) {
+                // nothing went through, give the bytes back to the budget
+                index.refund(byteArray.length);
+            }
+        }
+        if (attachment != null && attachment.getId() != null) {
+            index.put(url, hash, attachment.getId());
+        }
 
         return attachment;
     }
 
+    /**
+     * Upload encoded content as an attachment to a test case execution.
+     */
+    private Attachment uploadExecutionAttachment(final Integer executionId, final String title,
+            final String description, final String fileName, final String fileType, final String fileContent) {
+        return call(RequestType.ATTACHMENT, new Callable<Attachment>() {
+            public Attachment call() {
+                return api().uploadExecutionAttachment(executionId, title, description, fileName, fileType,
+                        fileContent);
+            }
+        });
+    }
+
     /**
      * Create a new test project on TestLink.
      * 
@@ -312,14 +850,19 @@ final class TestLinkSite {
      * @param isPublic Public project
      * @return Test project
      */
-    /* package */ TestProject createNewTestProject(String testProjectName, String testProjectPrefix, String notes,
-            boolean enableRequirements, boolean enableTestPriority, boolean enableAutomation, boolean enableInventory,
-            boolean isActive, boolean isPublic) {
+    /* package */ TestProject createNewTestProject(final String testProjectName, final String testProjectPrefix,
+            final String notes, final boolean enableRequirements, final boolean enableTestPriority,
+            final boolean enableAutomation, final boolean enableInventory, final boolean isActive,
+            final boolean isPublic) {
         TestProject project = null;
 
         try {
-            project = api.createTestProject(testProjectName, testProjectPrefix, notes, enableRequirements,
-                    enableTestPriority, enableAutomation, enableInventory, isActive, isPublic);
+            project = call(RequestType.SPEC, new Callable<TestProject>() {
+                public TestProject call() {
+                    return api().createTestProject(testProjectName, testProjectPrefix, notes, enableRequirements,
+                            enableTestPriority, enableAutomation, enableInventory, isActive, isPublic);
+                }
+            });
         } catch (TestLinkAPIException e) {
             LOGGER.log(Level.SEVERE, "Error while trying to create a new test project on TestLink", e);
         }
@@ -328,6 +871,19 @@ final class TestLinkSite {
 
     }
 
+    private static ExecutorService createBackground() {
+        final ThreadPoolExecutor background = new ThreadPoolExecutor(1, 1, 30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "testlink-background");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        background.allowCoreThreadTimeOut(true);
+        return background;
+    }
+
     /**
      * Data checking: the two input arrays must be not null and have same size.
      * 
@@ -345,4 +901,25 @@ final class TestLinkSite {
         }
 
     }
+
+    /**
+     * Task creating the TestLink API, which remembers the thread it failed in.
+     */
+    private static final class Connection extends FutureTask<TestLinkAPI> {
+
+        /**
+         * The thread that ran the task, if it failed.
+         */
+        private volatile Thread failedIn = null;
+
+        private Connection(Callable<TestLinkAPI> connect) {
+            super(connect);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            failedIn = Thread.currentThread();
+            super.setException(t);
+        }
+    }
 }
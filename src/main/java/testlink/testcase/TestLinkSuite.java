@@ -0,0 +1,142 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.Suite;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+
+/**
+ * JUnit suite that runs its classes scheduled by duration.
+ * 
+ * <p>
+ * Used like {@link Suite}, with <code>@RunWith(TestLinkSuite.class)</code> and <code>@SuiteClasses</code>. The classes
+ * run longest first.
+ * </p>
+ * 
+ * <p>
+ * To shard the suite, run it once per shard, each in its own JVM (e.g. one CI job per shard), with the number of
+ * shards in <code>testlink.forks</code> and the shard number, from 1, in <code>testlink.fork</code>. The classes are
+ * split among the shards with {@link DurationScheduler}, and each JVM runs only its share. All shards must read the
+ * same durations: set <code>testlink.history.seed</code> to a copy of the history made before starting the shards,
+ * and check that every shard logs the same partition fingerprint. Surefire forks cannot be used as shards, as
+ * Surefire sends the suite class to a single fork. Without <code>testlink.fork</code>, the whole suite runs.
+ * </p>
+ * 
+ * <p>
+ * When changed requirements are listed, only the classes selected by {@link RequirementFilter} are scheduled.
+ * </p>
+ * 
+ * <p>
+ * When the suite finishes, the results of its classes are reported, including the classes only partly run.
+ * </p>
+ * 
+ * @since 0.1
+ */
+public class TestLinkSuite extends Suite {
+
+    private static final Logger LOGGER = Logger.getLogger(TestLinkSuite.class.getName());
+
+    static {
+        // connect while the suite classes are being loaded
+        TestLinkSite.warmUpConfigured();
+    }
+
+    /**
+     * Called by JUnit.
+     * 
+     * @param klass the suite class
+     * @param builder builds the runners of the suite classes
+     * @throws InitializationError if the suite class is not annotated with <code>@SuiteClasses</code>
+     */
+    public TestLinkSuite(Class<?> klass, RunnerBuilder builder) throws InitializationError {
+        super(builder, klass, schedule(klass));
+    }
+
+    @Override
+    public void run(RunNotifier notifier) {
+        try {
+            super.run(notifier);
+        } finally {
+            // nothing else of the suite will run, do not wait for the end of the JVM
+            final Set<Class<?>> testClasses = new LinkedHashSet<Class<?>>();
+            addTestClasses(getDescription(), testClasses);
+            ClassResult.reportAll(testClasses);
+        }
+    }
+
+    private static void addTestClasses(Description description, Set<Class<?>> testClasses) {
+        if (description.getTestClass() != null) {
+            testClasses.add(description.getTestClass());
+        }
+        for (Description child : description.getChildren()) {
+            addTestClasses(child, testClasses);
+        }
+    }
+
+    private static Class<?>[] schedule(Class<?> klass) throws InitializationError {
+        final SuiteClasses annotation = klass.getAnnotation(SuiteClasses.class);
+        if (annotation == null) {
+            throw new InitializationError(String.format("class '%s' must have a SuiteClasses annotation",
+                    klass.getName()));
+        }
+
+        List<Class<?>> candidates = Arrays.<Class<?>> asList(annotation.value());
+        final RequirementFilter filter = RequirementFilter.fromSystemProperties(new RequirementIndex(candidates));
+        if (filter != null) {
+            candidates = filter.select(candidates);
+            LOGGER.log(Level.INFO, candidates.size() + " of " + annotation.value().length
+                    + " test classes cover the changed requirements");
+        }
+
+        final String shard = System.getProperty("testlink.fork");
+        final List<Class<?>> classes;
+        if (shard == null) {
+            classes = DurationScheduler.order(candidates);
+            LOGGER.log(Level.INFO, "Running " + classes.size() + " of " + annotation.value().length
+                    + " test classes");
+        } else {
+            final int forks = Integer.parseInt(System.getProperty("testlink.forks", "1"));
+            final int fork = Integer.parseInt(shard);
+            if (fork < 1 || fork > forks) {
+                throw new InitializationError("Invalid fork " + fork + " of " + forks);
+            }
+            final List<List<Class<?>>> partition = DurationScheduler.partition(candidates, forks);
+            classes = partition.get(fork - 1);
+            LOGGER.log(Level.INFO, "Running " + classes.size() + " of " + annotation.value().length
+                    + " test classes in fork " + fork + " of " + forks + ", partition "
+                    + DurationScheduler.fingerprint(partition) + " (must be the same in every fork)");
+        }
+        return classes.toArray(new Class<?>[classes.size()]);
+    }
+}
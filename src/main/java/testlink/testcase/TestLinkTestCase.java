@@ -26,6 +26,7 @@ package testlink.testcase;
 import java.lang.annotation.Annotation;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -56,6 +57,14 @@ import br.eti.kinoshita.testlinkjavaapi.model.TestSuite;
  * Problems in this connection will raise exceptions in the <code>setUp</code> method call.
  * </p>
  * 
+ * <p>
+ * When the <code>testlink.plan</code> and <code>testlink.build</code> system properties are set, the test case is
+ * also added to that test plan, executed in that build and, if <code>testlink.platform</code> is set, in that
+ * platform. The plan and the build are created on first use. Each test class is reported to the build as one
+ * execution, in the background, failed if any of its tests failed. Artifacts of failed tests are uploaded to the
+ * execution, see {@link FailureArtifacts}.
+ * </p>
+ * 
  * @author mcaste00
  * @since 0.1
  */
@@ -63,8 +72,23 @@ public abstract class TestLinkTestCase extends junit.framework.TestCase {
 
     private static final Logger LOGGER = Logger.getLogger(TestLinkTestCase.class.getName());
 
+    static {
+        // connect while the tests are being loaded
+        TestLinkSite.warmUpConfigured();
+    }
+
     private TestLinkSite testlink;
 
+    /**
+     * Test plan where the test case is executed, or <code>null</code> if no test plan is configured.
+     */
+    private TestPlanProvisioner testPlan;
+
+    /**
+     * The TestLink test case of this test.
+     */
+    private TestCase testCase;
+
     /**
      * Estabilishes connection with TestLink.
      * 
@@ -73,8 +97,8 @@ public abstract class TestLinkTestCase extends junit.framework.TestCase {
      * @throws RuntimeException if it is not able to connect to TestLink
      */
     protected void connect(String url, String devKey) {
-        // Open connection to TestLink
-        testlink = new TestLinkSite(url, devKey);
+        // Open connection to TestLink, shared by all tests
+        testlink = TestLinkSite.forServer(url, devKey);
     }
 
     @Before
@@ -134,6 +158,20 @@ public abstract class TestLinkTestCase extends junit.framework.TestCase {
     
                 // Add requirements to the test case
                 setRequirements(testCase, srs, requirements);
+
+                this.testCase = testCase;
+
+                // Add the test case to the test plan, provisioning plan and build on first use
+                final String testPlanName = System.getProperty("testlink.plan");
+                if (StringUtils.isNotEmpty(testPlanName)) {
+                    final String buildName = System.getProperty("testlink.build");
+                    if (StringUtils.isEmpty(buildName)) {
+                        throw new RuntimeException("Missing build name for test plan: " + testPlanName);
+                    }
+                    testPlan = TestPlanProvisioner.get(url, testProject, testPlanName, buildName,
+                            StringUtils.defaultIfEmpty(System.getProperty("testlink.platform"), null));
+                    testPlan.add(testlink, testCase);
+                }
     
                 /* TODO: FROM HERE ON IS EXPERIMENTAL */
                    
@@ -170,6 +208,43 @@ public abstract class TestLinkTestCase extends junit.framework.TestCase {
         }
     }
 
+    /**
+     * Runs the test, recording its duration in the {@link DurationHistory} and its result in the {@link ClassResult}.
+     */
+    @Override
+    public void runBare() throws Throwable {
+        final long start = System.nanoTime();
+        Throwable failure = null;
+        try {
+            super.runBare();
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            DurationHistory.getInstance().record(this.getClass().getName(), getName(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            recordResult(failure);
+        }
+    }
+
+    /**
+     * Records the result of the test, if there is a test plan. The result of the class is reported in the background
+     * once all its tests ran. When the test failed, the artifacts that cannot wait are taken now.
+     * 
+     * @param failure the test failure, or <code>null</code> if the test passed
+     */
+    private void recordResult(Throwable failure) {
+        if (testPlan == null || testCase == null) {
+            return;
+        }
+
+        FailureArtifacts.Snapshot artifacts = null;
+        if (failure != null && FailureArtifacts.isEnabled()) {
+            artifacts = FailureArtifacts.capture(this.getClass().getName() + "." + getName());
+        }
+        ClassResult.forClass(this.getClass()).record(testlink, testPlan, testCase, getName(), failure, artifacts);
+    }
+
     /**
      * Given a list of requirements being part of an SRS folder, links them to the test case.
      * 
@@ -0,0 +1,229 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client-side load shaping for a TestLink server.
+ * 
+ * <p>
+ * There is one throttle per server URL, shared by every {@link TestLinkSite} in the JVM. Reads and writes have
+ * separate {@link TokenBucket token buckets}. When the server answers slowly or fails at the transport level, both
+ * budgets are halved; every healthy answer gives back part of the configured rate.
+ * </p>
+ * 
+ * <p>
+ * Configured with the following system properties:
+ * </p>
+ * <ul>
+ * <li><code>testlink.throttle.reads</code>: read requests per second, default 20. Zero or less disables the limit.</li>
+ * <li><code>testlink.throttle.writes</code>: write requests per second, default 5. Zero or less disables the limit.</li>
+ * <li><code>testlink.throttle.burst</code>: requests allowed in a burst, default 5.</li>
+ * <li><code>testlink.throttle.latency</code>: answers slower than this, in milliseconds, slow the client down. Default
+ * 2000.</li>
+ * </ul>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ * 
+ * @since 0.1
+ */
+final class TestLinkThrottle {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(TestLinkThrottle.class.getName());
+
+    /**
+     * Throttles by server URL.
+     */
+    private static final ConcurrentMap<String, TestLinkThrottle> THROTTLES = new ConcurrentHashMap<String, TestLinkThrottle>();
+
+    /**
+     * Server URL, for logging.
+     */
+    private final String url;
+
+    /**
+     * Budget for read requests, or <code>null</code> if unlimited.
+     */
+    private final TokenBucket reads;
+
+    /**
+     * Budget for write requests, or <code>null</code> if unlimited.
+     */
+    private final TokenBucket writes;
+
+    /**
+     * Latency above which the server is considered overloaded, in nanoseconds.
+     */
+    private final long latencyThreshold;
+
+    /**
+     * Time of the last slow down, in nanoseconds. Slow downs closer than the latency threshold are merged, so that a
+     * batch of concurrent slow answers counts once.
+     */
+    private final AtomicLong lastSlowDown;
+
+    private TestLinkThrottle(String url) {
+        this.url = url;
+        final double burst = Double.parseDouble(System.getProperty("testlink.throttle.burst", "5"));
+        this.reads = createBucket(System.getProperty("testlink.throttle.reads", "20"), burst);
+        this.writes = createBucket(System.getProperty("testlink.throttle.writes", "5"), burst);
+        this.latencyThreshold = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(System.getProperty(
+                "testlink.throttle.latency", "2000")));
+        // allow slowing down right away
+        this.lastSlowDown = new AtomicLong(System.nanoTime() - latencyThreshold - 1);
+    }
+
+    /**
+     * Returns the throttle shared by all clients of a TestLink server.
+     * 
+     * @param url address to the TestLink server
+     * @return the throttle for the server
+     */
+    /* package */ static TestLinkThrottle forServer(String url) {
+        TestLinkThrottle throttle = THROTTLES.get(url);
+        if (throttle == null) {
+            final TestLinkThrottle created = new TestLinkThrottle(url);
+            throttle = THROTTLES.putIfAbsent(url, created);
+            if (throttle == null) {
+                throttle = created;
+            }
+        }
+        return throttle;
+    }
+
+    /**
+     * Waits for the budget of a request. The returned permit must be released once the server answers.
+     * 
+     * @param type the type of request
+     * @return the permit for the request
+     * @throws RuntimeException if interrupted while waiting
+     */
+    /* package */ Permit acquire(RequestType type) {
+        final TokenBucket bucket = bucketFor(type);
+        if (bucket != null) {
+            try {
+                bucket.acquire(type);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting to send a request to TestLink", ie);
+            }
+        }
+        return new Permit();
+    }
+
+    private TokenBucket bucketFor(RequestType type) {
+        return type.isWrite() ? writes : reads;
+    }
+
+    /**
+     * Lowers both budgets, at most once per latency threshold.
+     */
+    private void slowDown() {
+        final long now = System.nanoTime();
+        final long last = lastSlowDown.get();
+        if (now - last > latencyThreshold && lastSlowDown.compareAndSet(last, now)) {
+            if (reads != null) {
+                reads.slowDown();
+            }
+            if (writes != null) {
+                writes.slowDown();
+            }
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Slowing down requests to " + url + ": reads "
+                        + (reads != null ? reads.getRate() : "unlimited") + "/s, writes "
+                        + (writes != null ? writes.getRate() : "unlimited") + "/s");
+            }
+        }
+    }
+
+    /**
+     * Raises both budgets back towards their configured rates.
+     */
+    private void speedUp() {
+        if (reads != null) {
+            reads.speedUp();
+        }
+        if (writes != null) {
+            writes.speedUp();
+        }
+    }
+
+    private static TokenBucket createBucket(String rate, double burst) {
+        final double perSecond = Double.parseDouble(rate);
+        return perSecond > 0 ? new TokenBucket(perSecond, burst) : null;
+    }
+
+    /**
+     * The right to send one request. Used to measure how the server copes with the load.
+     */
+    /* package */ final class Permit {
+
+        /**
+         * Time the request was sent, in nanoseconds.
+         */
+        private final long start = System.nanoTime();
+
+        /**
+         * Whether the request failed at the transport level.
+         */
+        private boolean failed = false;
+
+        private Permit() {
+        }
+
+        /**
+         * Records a failed request. Only failures caused by the transport (timeouts, refused connections, HTTP errors)
+         * count against the server; errors reported by TestLink itself do not.
+         * 
+         * @param e the error
+         */
+        /* package */ void fail(RuntimeException e) {
+            if (e.getCause() != null) {
+                failed = true;
+            }
+        }
+
+        /**
+         * Releases the permit once the server answered, adjusting the budgets to its health.
+         */
+        /* package */ void release() {
+            if (failed || System.nanoTime() - start > latencyThreshold) {
+                slowDown();
+            } else {
+                speedUp();
+            }
+        }
+    }
+}
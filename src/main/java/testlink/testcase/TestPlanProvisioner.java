@@ -0,0 +1,332 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import br.eti.kinoshita.testlinkjavaapi.model.Build;
+import br.eti.kinoshita.testlinkjavaapi.model.Platform;
+import br.eti.kinoshita.testlinkjavaapi.model.TestCase;
+import br.eti.kinoshita.testlinkjavaapi.model.TestPlan;
+import br.eti.kinoshita.testlinkjavaapi.model.TestProject;
+
+/**
+ * Test plan, build and platform where the test cases of a run are executed.
+ * 
+ * <p>
+ * The plan and the build are looked up, and created if missing, once per run (i.e. once per JVM) and then cached. The
+ * platform must already be linked to the plan, as the TestLink API does not create platforms. Test cases are added to
+ * the plan in batches of <code>testlink.plan.batch</code> (default 20), and test cases already in the plan are skipped
+ * using a snapshot of the plan contents for the platform, taken at provisioning time. A result does not wait for its
+ * batch to fill: reporting the result of a pending test case adds the pending batch right away, in the background.
+ * Results of test cases being added by another thread are held until their batch is added.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ * 
+ * @since 0.1
+ */
+final class TestPlanProvisioner {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(TestPlanProvisioner.class.getName());
+
+    /**
+     * Provisioners by server, project, plan, build and platform.
+     */
+    private static final ConcurrentMap<String, TestPlanProvisioner> PROVISIONERS =
+            new ConcurrentHashMap<String, TestPlanProvisioner>();
+
+    private final TestProject testProject;
+
+    private final String testPlanName;
+
+    private final String buildName;
+
+    private final String platformName;
+
+    /**
+     * Number of test cases added to the plan at once.
+     */
+    private final int batchSize;
+
+    private TestPlan testPlan;
+
+    private Build build;
+
+    private Platform platform;
+
+    /**
+     * IDs of the test cases in the plan for the platform, added or pending.
+     */
+    private Set<Integer> testCaseIds;
+
+    /**
+     * Test cases waiting to be added to the plan, by ID.
+     */
+    private final Map<Integer, TestCase> pending = new LinkedHashMap<Integer, TestCase>();
+
+    /**
+     * IDs of the test cases of the batch being added.
+     */
+    private final Set<Integer> adding = new HashSet<Integer>();
+
+    /**
+     * Result reports waiting for their test case to be added to the plan, by test case ID.
+     */
+    private final Map<Integer, Runnable> deferred = new HashMap<Integer, Runnable>();
+
+    /**
+     * Site used for the last batch, used to add pending test cases at the end of the run.
+     */
+    private TestLinkSite lastSite;
+
+    private TestPlanProvisioner(TestProject testProject, String testPlanName, String buildName, String platformName) {
+        this.testProject = testProject;
+        this.testPlanName = testPlanName;
+        this.buildName = buildName;
+        this.platformName = platformName;
+        this.batchSize = Math.max(1, Integer.parseInt(System.getProperty("testlink.plan.batch", "20")));
+    }
+
+    /**
+     * Returns the provisioner shared by all tests of the run executed in the given plan, build and platform.
+     * 
+     * @param url address to the TestLink server
+     * @param testProject the test project
+     * @param testPlanName the test plan name
+     * @param buildName the build name
+     * @param platformName the platform name, or <code>null</code> for no platform
+     * @return the provisioner
+     */
+    /* package */ static TestPlanProvisioner get(String url, TestProject testProject, String testPlanName,
+            String buildName, String platformName) {
+        final String key = url + '\n' + testProject.getId() + '\n' + testPlanName + '\n' + buildName + '\n'
+                + platformName;
+        TestPlanProvisioner provisioner = PROVISIONERS.get(key);
+        if (provisioner == null) {
+            final TestPlanProvisioner created = new TestPlanProvisioner(testProject, testPlanName, buildName,
+                    platformName);
+            provisioner = PROVISIONERS.putIfAbsent(key, created);
+            if (provisioner == null) {
+                provisioner = created;
+                TestLinkRun.install();
+            }
+        }
+        return provisioner;
+    }
+
+    /**
+     * Looks up the plan, build and platform, creating the plan and the build if missing. Only the first call talks to
+     * TestLink.
+     * 
+     * @param site the TestLink site
+     * @throws RuntimeException if the platform is not linked to the plan
+     */
+    /* package */ synchronized void provision(TestLinkSite site) {
+        if (testPlan != null) {
+            return;
+        }
+
+        TestPlan plan = site.getTestPlan(testPlanName, testProject.getName());
+        if (plan == null) {
+            LOGGER.log(Level.INFO, "Creating test plan: " + testPlanName);
+            plan = site.createTestPlan(testPlanName, testProject.getName(), "Created by TestLink Unit");
+        }
+
+        Build planBuild = site.getBuild(plan.getId(), buildName);
+        if (planBuild == null) {
+            LOGGER.log(Level.INFO, "Creating build: " + buildName);
+            planBuild = site.createBuild(plan.getId(), buildName, "Created by TestLink Unit");
+        }
+
+        Platform planPlatform = null;
+        if (platformName != null) {
+            planPlatform = site.getPlatform(plan.getId(), platformName);
+            if (planPlatform == null) {
+                throw new RuntimeException("Could not find platform " + platformName + " in test plan: "
+                        + testPlanName);
+            }
+        }
+
+        testCaseIds = site.getTestCaseIdsInTestPlan(plan.getId(), planPlatform != null ? planPlatform.getId() : null);
+        build = planBuild;
+        platform = planPlatform;
+        testPlan = plan;
+    }
+
+    /**
+     * Schedules a test case to be added to the plan. Test cases already in the plan are ignored.
+     * 
+     * @param site the TestLink site
+     * @param testCase the test case
+     */
+    /* package */ void add(TestLinkSite site, TestCase testCase) {
+        synchronized (this) {
+            provision(site);
+            if (testCaseIds.contains(testCase.getId())) {
+                return;
+            }
+        }
+
+        // link the version just created or updated, not a guess
+        if (testCase.getVersion() == null) {
+            final Integer version = site.getTestCaseVersion(testCase.getId());
+            if (version == null) {
+                throw new RuntimeException("Could not find the version of test case: " + testCase.getId());
+            }
+            testCase.setVersion(version);
+        }
+
+        final List<TestCase> batch;
+        synchronized (this) {
+            provision(site);
+            lastSite = site;
+            if (!testCaseIds.add(testCase.getId())) {
+                return;
+            }
+            pending.put(testCase.getId(), testCase);
+            if (pending.size() < batchSize) {
+                return;
+            }
+            batch = drain();
+        }
+        addToPlan(site, batch);
+    }
+
+    /**
+     * Reports a result in the background, once its test case is in the plan. If the test case is pending, the pending
+     * batch is added first.
+     * 
+     * @param testCase the test case
+     * @param report sends the result to TestLink
+     */
+    /* package */ void report(final TestCase testCase, final Runnable report) {
+        TestLinkRun.submit(new Runnable() {
+            public void run() {
+                final List<TestCase> batch;
+                final TestLinkSite site;
+                synchronized (TestPlanProvisioner.this) {
+                    if (adding.contains(testCase.getId())) {
+                        // another thread is adding it
+                        deferred.put(testCase.getId(), report);
+                        return;
+                    }
+                    batch = pending.containsKey(testCase.getId()) ? drain() : null;
+                    site = lastSite;
+                }
+                if (batch != null) {
+                    addToPlan(site, batch);
+                }
+                report.run();
+            }
+        });
+    }
+
+    /**
+     * Adds the pending test cases of every plan.
+     */
+    /* package */ static void flushAll() {
+        for (TestPlanProvisioner provisioner : PROVISIONERS.values()) {
+            provisioner.flush();
+        }
+    }
+
+    /**
+     * Adds the pending test cases to the plan.
+     */
+    /* package */ void flush() {
+        final List<TestCase> batch;
+        final TestLinkSite site;
+        synchronized (this) {
+            batch = drain();
+            site = lastSite;
+        }
+        if (!batch.isEmpty()) {
+            addToPlan(site, batch);
+        }
+    }
+
+    /* package */ synchronized TestPlan getTestPlan() {
+        return testPlan;
+    }
+
+    /* package */ synchronized Build getBuild() {
+        return build;
+    }
+
+    /**
+     * @return the platform, or <code>null</code> for no platform
+     */
+    /* package */ synchronized Platform getPlatform() {
+        return platform;
+    }
+
+    private List<TestCase> drain() {
+        final List<TestCase> batch = new ArrayList<TestCase>(pending.values());
+        adding.addAll(pending.keySet());
+        pending.clear();
+        return batch;
+    }
+
+    private void addToPlan(TestLinkSite site, List<TestCase> batch) {
+        final Integer platformId = platform != null ? platform.getId() : null;
+        for (TestCase testCase : batch) {
+            try {
+                site.addTestCaseToTestPlan(testProject.getId(), testPlan.getId(), testCase.getId(),
+                        testCase.getVersion(), platformId);
+            } catch (RuntimeException re) {
+                LOGGER.log(Level.SEVERE, "Error adding test case " + testCase.getId() + " to test plan: "
+                        + testPlanName, re);
+                synchronized (this) {
+                    testCaseIds.remove(testCase.getId());
+                }
+            }
+
+            final Runnable report;
+            synchronized (this) {
+                adding.remove(testCase.getId());
+                report = deferred.remove(testCase.getId());
+            }
+            if (report != null) {
+                TestLinkRun.submit(report);
+            }
+        }
+        LOGGER.log(Level.FINE, "Added " + batch.size() + " test cases to test plan: " + testPlanName);
+    }
+}
@@ -0,0 +1,189 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import java.util.PriorityQueue;
+
+/**
+ * Token bucket rate limiter with prioritized waiters.
+ * 
+ * <p>
+ * Tokens are refilled continuously at the current rate, up to the bucket capacity. Callers waiting for a token are
+ * served in {@link RequestType} order, and in arrival order within the same type. The current rate can be lowered and
+ * raised again at runtime, never going above the rate the bucket was created with.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ * 
+ * @since 0.1
+ */
+final class TokenBucket {
+
+    /**
+     * The rate is never lowered below this fraction of the maximum rate.
+     */
+    private static final double MIN_RATE_FRACTION = 0.05;
+
+    /**
+     * Fraction of the maximum rate recovered on each {@link #speedUp()}.
+     */
+    private static final double RECOVERY_FRACTION = 0.1;
+
+    /**
+     * Configured rate, in tokens per second.
+     */
+    private final double maxRate;
+
+    /**
+     * Maximum number of tokens stored, i.e. the allowed burst.
+     */
+    private final double capacity;
+
+    /**
+     * Callers waiting for a token, head first.
+     */
+    private final PriorityQueue<Ticket> waiters = new PriorityQueue<Ticket>();
+
+    /**
+     * Current rate, in tokens per second.
+     */
+    private double rate;
+
+    /**
+     * Tokens currently available.
+     */
+    private double tokens;
+
+    /**
+     * Time of the last refill, in nanoseconds.
+     */
+    private long lastRefill;
+
+    /**
+     * Arrival counter, used to keep FIFO order among waiters of the same type.
+     */
+    private long sequence = 0L;
+
+    /**
+     * @param rate tokens per second
+     * @param capacity maximum number of tokens stored
+     */
+    /* package */ TokenBucket(double rate, double capacity) {
+        this.maxRate = rate;
+        this.rate = rate;
+        this.capacity = Math.max(1.0, capacity);
+        this.tokens = this.capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes one token, waiting until one is available and every waiter with a higher priority has been served.
+     * 
+     * @param type the type of the request, used as its priority
+     * @throws InterruptedException if interrupted while waiting
+     */
+    /* package */ synchronized void acquire(RequestType type) throws InterruptedException {
+        final Ticket ticket = new Ticket(type.ordinal(), sequence++);
+        waiters.add(ticket);
+        try {
+            while (true) {
+                refill();
+                if (waiters.peek() == ticket) {
+                    if (tokens >= 1.0) {
+                        tokens -= 1.0;
+                        return;
+                    }
+                    // sleep until the next token is due
+                    final long millis = (long) Math.ceil((1.0 - tokens) * 1000.0 / rate);
+                    wait(Math.max(1L, millis));
+                } else {
+                    wait();
+                }
+            }
+        } finally {
+            waiters.remove(ticket);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Halves the current rate.
+     */
+    /* package */ synchronized void slowDown() {
+        refill();
+        rate = Math.max(maxRate * MIN_RATE_FRACTION, rate / 2.0);
+        notifyAll();
+    }
+
+    /**
+     * Raises the current rate by a fraction of the maximum rate.
+     */
+    /* package */ synchronized void speedUp() {
+        if (rate < maxRate) {
+            refill();
+            rate = Math.min(maxRate, rate + maxRate * RECOVERY_FRACTION);
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return the current rate, in tokens per second
+     */
+    /* package */ synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * Adds the tokens accumulated since the last refill.
+     */
+    private void refill() {
+        final long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / 1000000000.0);
+        lastRefill = now;
+    }
+
+    /**
+     * A caller waiting for a token.
+     */
+    private static final class Ticket implements Comparable<Ticket> {
+
+        private final int priority;
+
+        private final long sequence;
+
+        private Ticket(int priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(Ticket other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
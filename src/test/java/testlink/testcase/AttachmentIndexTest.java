@@ -0,0 +1,116 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link AttachmentIndex}.
+ * 
+ * @since 0.1
+ */
+public class AttachmentIndexTest {
+
+    private static final String URL = "http://localhost/testlink/lib/api/xmlrpc.php";
+
+    @Test
+    public void testBudgetRefund() throws IOException {
+        final AttachmentIndex index = new AttachmentIndex(newFile(), 100L);
+
+        assertTrue(index.reserve(60L));
+        assertFalse(index.reserve(60L));
+        index.refund(60L);
+        assertTrue(index.reserve(100L));
+        assertFalse(index.reserve(1L));
+    }
+
+    @Test
+    public void testNoBudgetIsUnlimited() throws IOException {
+        final AttachmentIndex index = new AttachmentIndex(newFile(), 0L);
+
+        assertTrue(index.reserve(Long.MAX_VALUE));
+        index.refund(Long.MAX_VALUE);
+        assertTrue(index.reserve(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testSaveKeepsEntriesSavedMeanwhile() throws IOException {
+        final File file = newFile();
+        final AttachmentIndex index = new AttachmentIndex(file, 0L);
+        assertNull(index.get(URL, "a"));
+
+        // another fork saves after this index was read
+        final Properties saved = new Properties();
+        saved.setProperty(URL + "|a", "1");
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            saved.store(out, null);
+        } finally {
+            out.close();
+        }
+        index.put(URL, "b", 2);
+        index.save();
+
+        final AttachmentIndex merged = new AttachmentIndex(file, 0L);
+        assertEquals(Integer.valueOf(1), merged.get(URL, "a"));
+        assertEquals(Integer.valueOf(2), merged.get(URL, "b"));
+    }
+
+    @Test
+    public void testFileHashedLikeItsContent() throws IOException {
+        final byte[] content = new byte[20000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        final File file = newFile();
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+
+        assertEquals(AttachmentIndex.hash(content), AttachmentIndex.hash(file));
+    }
+
+    private static File newFile() throws IOException {
+        final File file = File.createTempFile("testlink-attachments-", ".properties");
+        file.deleteOnExit();
+        if (!file.delete()) {
+            throw new IOException("Could not delete " + file);
+        }
+        return file;
+    }
+}
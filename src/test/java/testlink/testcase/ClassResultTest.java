@@ -0,0 +1,146 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import br.eti.kinoshita.testlinkjavaapi.constants.ExecutionStatus;
+import br.eti.kinoshita.testlinkjavaapi.model.TestCase;
+import br.eti.kinoshita.testlinkjavaapi.model.TestProject;
+
+/**
+ * Tests for {@link ClassResult}.
+ * 
+ * @since 0.1
+ */
+public class ClassResultTest {
+
+    public static class TwoTests extends junit.framework.TestCase {
+
+        public void testOne() {
+        }
+
+        public void testTwo() {
+        }
+
+        public void notATest() {
+        }
+
+        public void testWithParameter(int parameter) {
+        }
+
+        protected void testNotPublic() {
+        }
+    }
+
+    public static class ThreeTests extends TwoTests {
+
+        @Override
+        public void testOne() {
+        }
+
+        public void testThree() {
+        }
+    }
+
+    public static class OneFailure extends TwoTests {
+    }
+
+    public static class OneTest extends junit.framework.TestCase {
+
+        public void testOne() {
+        }
+    }
+
+    @Test
+    public void testCountTestMethodsLikeJUnit() {
+        assertEquals(2, ClassResult.countTestMethods(TwoTests.class));
+        assertEquals(3, ClassResult.countTestMethods(ThreeTests.class));
+    }
+
+    @Test
+    public void testFailedIfAnyTestFailed() throws InterruptedException {
+        final FakeTestLinkSite site = new FakeTestLinkSite();
+        final TestPlanProvisioner testPlan = provisioner(site);
+        final ClassResult result = ClassResult.forClass(OneFailure.class);
+
+        result.record(site, testPlan, testCase(10), "testOne", null, null);
+        result.record(site, testPlan, testCase(10), "testTwo", new AssertionError("expected"), null);
+        awaitReports();
+
+        assertEquals(Collections.singletonList(ExecutionStatus.FAILED), site.results);
+    }
+
+    @Test
+    public void testReportedOnce() throws InterruptedException {
+        final FakeTestLinkSite site = new FakeTestLinkSite();
+        final TestPlanProvisioner testPlan = provisioner(site);
+        final ClassResult result = ClassResult.forClass(OneTest.class);
+
+        result.record(site, testPlan, testCase(10), "testOne", null, null);
+        ClassResult.reportAll(Arrays.<Class<?>> asList(OneTest.class));
+        result.record(site, testPlan, testCase(10), "testOne", new AssertionError("run again"), null);
+        awaitReports();
+
+        assertEquals(Collections.singletonList(ExecutionStatus.PASSED), site.results);
+    }
+
+    /**
+     * Waits for the results sent so far to be reported.
+     */
+    private static void awaitReports() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        TestLinkRun.submit(new Runnable() {
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5L, TimeUnit.SECONDS));
+    }
+
+    private static TestPlanProvisioner provisioner(TestLinkSite site) {
+        final TestProject testProject = new TestProject();
+        testProject.setId(1);
+        testProject.setName("project");
+        final TestPlanProvisioner testPlan = TestPlanProvisioner.get(site.toString(), testProject, "plan", "build",
+                null);
+        // done by the set up of the tests
+        testPlan.provision(site);
+        return testPlan;
+    }
+
+    private static TestCase testCase(int id) {
+        final TestCase testCase = new TestCase();
+        testCase.setId(id);
+        return testCase;
+    }
+}
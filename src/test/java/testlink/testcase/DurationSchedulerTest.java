@@ -0,0 +1,135 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link DurationScheduler}.
+ * 
+ * @since 0.1
+ */
+public class DurationSchedulerTest {
+
+    private static class A {
+    }
+
+    private static class B {
+    }
+
+    private static class C {
+    }
+
+    private static class D {
+    }
+
+    private static class E {
+    }
+
+    @Test
+    public void testLongestProcessingTimeFirst() throws IOException {
+        final DurationHistory history = history(A.class, 70L, B.class, 50L, C.class, 40L, D.class, 30L, E.class, 20L);
+
+        final List<List<Class<?>>> partition = DurationScheduler.partition(
+                Arrays.<Class<?>> asList(E.class, D.class, C.class, B.class, A.class), 2, history);
+
+        // A(70) | B(50) | C(40) to B, 90 | D(30) to A, 100 | E(20) to B, 110
+        assertEquals(Arrays.<Class<?>> asList(A.class, D.class), partition.get(0));
+        assertEquals(Arrays.<Class<?>> asList(B.class, C.class, E.class), partition.get(1));
+    }
+
+    @Test
+    public void testUnknownDurationsDefaultToAverage() throws IOException {
+        final DurationHistory history = history(A.class, 100L, B.class, 20L);
+
+        // C is given (100 + 20) / 2 = 60
+        assertEquals(Arrays.<Class<?>> asList(A.class, C.class, B.class),
+                DurationScheduler.order(Arrays.<Class<?>> asList(B.class, C.class, A.class), history));
+    }
+
+    @Test
+    public void testSamePartitionWhateverTheInputOrder() throws IOException {
+        final DurationHistory history = history();
+        final List<Class<?>> classes = Arrays.<Class<?>> asList(A.class, B.class, C.class, D.class, E.class);
+        final List<Class<?>> reversed = Arrays.<Class<?>> asList(E.class, D.class, C.class, B.class, A.class);
+
+        final List<List<Class<?>>> expected = DurationScheduler.partition(classes, 3, history);
+        assertEquals(expected, DurationScheduler.partition(reversed, 3, history));
+        assertEquals(expected, DurationScheduler.partition(classes, 3, history));
+    }
+
+    @Test
+    public void testFingerprintTellsPartitionsApart() throws IOException {
+        final List<Class<?>> classes = Arrays.<Class<?>> asList(A.class, B.class, C.class);
+        final List<List<Class<?>>> partition = DurationScheduler.partition(classes, 2,
+                history(A.class, 10L, B.class, 50L));
+        final List<List<Class<?>>> same = DurationScheduler.partition(classes, 2, history(A.class, 10L, B.class, 50L));
+        final List<List<Class<?>>> other = DurationScheduler.partition(classes, 2,
+                history(A.class, 50L, B.class, 10L));
+
+        assertEquals(DurationScheduler.fingerprint(partition), DurationScheduler.fingerprint(same));
+        assertFalse(DurationScheduler.fingerprint(partition).equals(DurationScheduler.fingerprint(other)));
+    }
+
+    @Test
+    public void testMoreForksThanClasses() throws IOException {
+        final List<List<Class<?>>> partition = DurationScheduler.partition(
+                Collections.<Class<?>> singletonList(A.class), 3, history());
+
+        assertEquals(3, partition.size());
+        assertEquals(Collections.<Class<?>> singletonList(A.class), partition.get(0));
+        assertEquals(Collections.<Class<?>> emptyList(), partition.get(1));
+    }
+
+    /**
+     * Creates a history from pairs of test class and duration.
+     */
+    private static DurationHistory history(Object... durations) throws IOException {
+        final Properties properties = new Properties();
+        for (int i = 0; i < durations.length; i += 2) {
+            properties.setProperty(((Class<?>) durations[i]).getName(), durations[i + 1].toString());
+        }
+        final File file = File.createTempFile("testlink-durations-", ".properties");
+        file.deleteOnExit();
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+        return new DurationHistory(file);
+    }
+}
@@ -0,0 +1,89 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link FailureArtifacts}.
+ * 
+ * @since 0.1
+ */
+public class FailureArtifactsTest {
+
+    @Test
+    public void testGlobsMatchFilesInSubdirectories() throws IOException {
+        final Path dir = createFiles("app.log", "logs/server.log", "logs/server.txt", "screenshots/failure.png");
+
+        assertEquals(Arrays.asList("app.log", "logs/server.log"), find(dir, "**.log"));
+        assertEquals(Collections.singletonList("logs/server.log"), find(dir, "logs/*.log"));
+        assertEquals(Collections.<String> emptyList(), find(dir, "*.png"));
+    }
+
+    @Test
+    public void testPlainFilesMatchOnlyIfTheyExist() throws IOException {
+        final Path dir = createFiles("app.log");
+
+        assertEquals(Collections.singletonList("app.log"), find(dir, "app.log"));
+        assertEquals(Collections.<String> emptyList(), find(dir, "missing.log"));
+    }
+
+    /**
+     * Finds files with a pattern relative to a directory.
+     * 
+     * @return the paths of the files found, relative to the directory, sorted
+     */
+    private static List<String> find(Path dir, String pattern) throws IOException {
+        final String base = dir.toString().replace(File.separatorChar, '/');
+        final List<String> found = new ArrayList<String>();
+        for (Path file : FailureArtifacts.findFiles(new String[] { base + "/" + pattern })) {
+            found.add(dir.relativize(file).toString().replace(File.separatorChar, '/'));
+        }
+        Collections.sort(found);
+        return found;
+    }
+
+    private static Path createFiles(String... names) throws IOException {
+        final Path dir = Files.createTempDirectory("testlink-artifacts-");
+        dir.toFile().deleteOnExit();
+        for (String name : names) {
+            final Path file = dir.resolve(name);
+            Files.createDirectories(file.getParent());
+            Files.createFile(file).toFile().deleteOnExit();
+            file.getParent().toFile().deleteOnExit();
+        }
+        return dir;
+    }
+}
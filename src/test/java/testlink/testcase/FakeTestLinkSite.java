@@ -0,0 +1,122 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import br.eti.kinoshita.testlinkjavaapi.constants.ExecutionStatus;
+import br.eti.kinoshita.testlinkjavaapi.model.Build;
+import br.eti.kinoshita.testlinkjavaapi.model.Platform;
+import br.eti.kinoshita.testlinkjavaapi.model.TestPlan;
+
+/**
+ * TestLink site answering from memory, never connecting to a server.
+ * 
+ * @since 0.1
+ */
+/* package */ class FakeTestLinkSite extends TestLinkSite {
+
+    private static final AtomicInteger SERVERS = new AtomicInteger();
+
+    /**
+     * IDs of the test cases in the plan when it is provisioned.
+     */
+    /* package */ final Set<Integer> inPlan = new HashSet<Integer>();
+
+    /**
+     * IDs of the test cases added to the plan, in order.
+     */
+    /* package */ final List<Integer> added = new ArrayList<Integer>();
+
+    /**
+     * Results reported, in order.
+     */
+    /* package */ final List<ExecutionStatus> results = new ArrayList<ExecutionStatus>();
+
+    /* package */ FakeTestLinkSite() {
+        super(url(), "devKey");
+    }
+
+    /**
+     * @return the address of a server no other test uses
+     */
+    /* package */ static String url() {
+        return "http://localhost/testlink-" + SERVERS.incrementAndGet() + "/lib/api/xmlrpc.php";
+    }
+
+    @Override
+    /* package */ TestPlan getTestPlan(String testPlanName, String testProjectName) {
+        final TestPlan testPlan = new TestPlan();
+        testPlan.setId(1);
+        testPlan.setName(testPlanName);
+        return testPlan;
+    }
+
+    @Override
+    /* package */ Build getBuild(Integer testPlanId, String buildName) {
+        final Build build = new Build();
+        build.setId(2);
+        build.setName(buildName);
+        return build;
+    }
+
+    @Override
+    /* package */ Platform getPlatform(Integer testPlanId, String platformName) {
+        final Platform platform = new Platform();
+        platform.setId(3);
+        platform.setName(platformName);
+        return platform;
+    }
+
+    @Override
+    /* package */ Set<Integer> getTestCaseIdsInTestPlan(Integer testPlanId, Integer platformId) {
+        return new HashSet<Integer>(inPlan);
+    }
+
+    @Override
+    /* package */ Integer getTestCaseVersion(Integer testCaseId) {
+        return 1;
+    }
+
+    @Override
+    /* package */ void addTestCaseToTestPlan(Integer testProjectId, Integer testPlanId, Integer testCaseId,
+            Integer version, Integer platformId) {
+        synchronized (added) {
+            added.add(testCaseId);
+        }
+    }
+
+    @Override
+    /* package */ Integer reportResult(Integer testCaseId, Integer testPlanId, Integer buildId, Integer platformId,
+            ExecutionStatus status, String notes) {
+        synchronized (results) {
+            results.add(status);
+            return results.size();
+        }
+    }
+}
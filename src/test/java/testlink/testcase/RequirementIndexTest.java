@@ -0,0 +1,104 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import testlink.annotations.Coverage;
+
+/**
+ * Tests for {@link RequirementIndex} and {@link RequirementFilter}.
+ * 
+ * @since 0.1
+ */
+public class RequirementIndexTest {
+
+    @Coverage(srs = "10", requirements = { "1", "2" })
+    private static class Login {
+    }
+
+    @Coverage(srs = "10", requirements = { "2", "3" })
+    private static class Logout {
+    }
+
+    @Coverage(srs = "20", requirements = { "4" })
+    private static class Report {
+    }
+
+    private static class Uncovered {
+    }
+
+    private static final List<Class<?>> CLASSES = Arrays.<Class<?>> asList(Login.class, Logout.class, Report.class,
+            Uncovered.class);
+
+    private static final List<String> NONE = Collections.emptyList();
+
+    @Test
+    public void testAffectedByRequirement() {
+        final RequirementIndex index = new RequirementIndex(CLASSES);
+
+        assertEquals(set(Uncovered.class, Login.class), index.getAffectedTestClasses(Arrays.asList("1"), NONE));
+        assertEquals(set(Uncovered.class, Login.class, Logout.class),
+                index.getAffectedTestClasses(Arrays.asList("2"), NONE));
+        assertEquals(set(Login.class, Logout.class), index.getTestClasses("2"));
+    }
+
+    @Test
+    public void testAffectedBySrs() {
+        final RequirementIndex index = new RequirementIndex(CLASSES);
+
+        assertEquals(set(Uncovered.class, Report.class), index.getAffectedTestClasses(NONE, Arrays.asList("20")));
+        assertEquals(set(Uncovered.class, Login.class, Logout.class, Report.class),
+                index.getAffectedTestClasses(Arrays.asList("4"), Arrays.asList("10")));
+    }
+
+    @Test
+    public void testUncoveredAlwaysAffected() {
+        final RequirementIndex index = new RequirementIndex(CLASSES);
+
+        assertEquals(set(Uncovered.class), index.getAffectedTestClasses(NONE, NONE));
+        assertEquals(set(Uncovered.class), index.getAffectedTestClasses(Arrays.asList("99"), NONE));
+        assertEquals(Collections.<Class<?>> emptySet(), index.getTestClasses("99"));
+    }
+
+    @Test
+    public void testFilterChecksClassesOutsideTheIndex() {
+        final RequirementIndex index = new RequirementIndex(Collections.<Class<?>> singletonList(Login.class));
+        final RequirementFilter filter = new RequirementFilter(index, Arrays.asList("3"), NONE);
+
+        assertEquals(Arrays.<Class<?>> asList(Logout.class, Uncovered.class), filter.select(CLASSES));
+    }
+
+    private static Set<Class<?>> set(Class<?>... classes) {
+        return new LinkedHashSet<Class<?>>(Arrays.asList(classes));
+    }
+}
@@ -0,0 +1,121 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import br.eti.kinoshita.testlinkjavaapi.TestLinkAPI;
+
+/**
+ * Tests for {@link TestLinkSite}.
+ * 
+ * @since 0.1
+ */
+public class TestLinkSiteTest {
+
+    @Test
+    public void testNextCallerConnectsAgainAfterAFailedConnect() {
+        final AtomicInteger attempts = new AtomicInteger();
+        final TestLinkSite site = new TestLinkSite(FakeTestLinkSite.url(), new Callable<TestLinkAPI>() {
+            public TestLinkAPI call() {
+                if (attempts.incrementAndGet() == 1) {
+                    throw new RuntimeException("TestLink is down");
+                }
+                return null;
+            }
+        });
+
+        try {
+            site.api();
+            fail("The connection should have failed");
+        } catch (RuntimeException expected) {
+            // the caller saw the connection fail, it is not retried
+            assertEquals(1, attempts.get());
+        }
+        assertNull(site.api());
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testCallerRetriesAConnectThatFailedInAnotherThread() throws InterruptedException {
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch connecting = new CountDownLatch(1);
+        final CountDownLatch down = new CountDownLatch(1);
+        final TestLinkSite site = new TestLinkSite(FakeTestLinkSite.url(), new Callable<TestLinkAPI>() {
+            public TestLinkAPI call() throws InterruptedException {
+                if (attempts.incrementAndGet() == 1) {
+                    connecting.countDown();
+                    down.await();
+                    throw new RuntimeException("TestLink is down");
+                }
+                return null;
+            }
+        });
+
+        // e.g. the warm-up
+        final Thread warmUp = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    site.api();
+                } catch (RuntimeException expected) {
+                    // failed in this thread, so not retried
+                }
+            }
+        };
+        warmUp.start();
+        assertTrue(connecting.await(5L, TimeUnit.SECONDS));
+
+        final RuntimeException[] error = new RuntimeException[1];
+        final Thread test = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    site.api();
+                } catch (RuntimeException re) {
+                    error[0] = re;
+                }
+            }
+        };
+        test.start();
+        // let the test wait for the warm-up connection
+        Thread.sleep(100L);
+        down.countDown();
+        warmUp.join(5000L);
+        test.join(5000L);
+
+        assertNull(error[0]);
+        assertEquals(2, attempts.get());
+    }
+}
@@ -0,0 +1,118 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import br.eti.kinoshita.testlinkjavaapi.model.Platform;
+import br.eti.kinoshita.testlinkjavaapi.model.TestCase;
+import br.eti.kinoshita.testlinkjavaapi.model.TestProject;
+
+/**
+ * Tests for {@link TestPlanProvisioner}.
+ * 
+ * @since 0.1
+ */
+public class TestPlanProvisionerTest {
+
+    @Test
+    public void testTestCasesInThePlanAreNotAddedAgain() {
+        final FakeTestLinkSite site = new FakeTestLinkSite();
+        site.inPlan.add(10);
+        final TestPlanProvisioner provisioner = provisioner(site);
+
+        provisioner.add(site, testCase(10));
+        provisioner.add(site, testCase(11));
+        provisioner.add(site, testCase(11));
+        provisioner.flush();
+
+        assertEquals(Collections.singletonList(11), site.added);
+    }
+
+    @Test
+    public void testResultsDoNotWaitForTheBatchToFill() throws InterruptedException {
+        final FakeTestLinkSite site = new FakeTestLinkSite();
+        final TestPlanProvisioner provisioner = provisioner(site);
+        final CountDownLatch reported = new CountDownLatch(1);
+        final List<Integer> addedBeforeReport = new ArrayList<Integer>();
+
+        provisioner.add(site, testCase(10));
+        provisioner.add(site, testCase(11));
+        assertTrue(site.added.isEmpty());
+        provisioner.report(testCase(10), new Runnable() {
+            public void run() {
+                synchronized (site.added) {
+                    addedBeforeReport.addAll(site.added);
+                }
+                reported.countDown();
+            }
+        });
+
+        assertTrue(reported.await(5L, TimeUnit.SECONDS));
+        // the whole pending batch is added, before the result
+        assertEquals(Arrays.asList(10, 11), addedBeforeReport);
+    }
+
+    @Test
+    public void testOnlyTestCasesOfThePlatformAreInThePlan() {
+        final Platform linux = new Platform();
+        linux.setId(3);
+        final Platform windows = new Platform();
+        windows.setId(4);
+        final TestCase onLinux = testCase(10);
+        onLinux.setPlatform(linux);
+        final TestCase onWindows = testCase(11);
+        onWindows.setPlatform(windows);
+        final TestCase[] testCases = new TestCase[] { onLinux, onWindows };
+
+        assertEquals(Collections.singleton(10), TestLinkSite.getTestCaseIds(testCases, 3));
+        final Set<Integer> all = new TreeSet<Integer>(TestLinkSite.getTestCaseIds(testCases, null));
+        assertEquals(new TreeSet<Integer>(Arrays.asList(10, 11)), all);
+    }
+
+    private static TestPlanProvisioner provisioner(TestLinkSite site) {
+        final TestProject testProject = new TestProject();
+        testProject.setId(1);
+        testProject.setName("project");
+        return TestPlanProvisioner.get(site.toString(), testProject, "plan", "build", "platform");
+    }
+
+    private static TestCase testCase(int id) {
+        final TestCase testCase = new TestCase();
+        testCase.setId(id);
+        return testCase;
+    }
+}
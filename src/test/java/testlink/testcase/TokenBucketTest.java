@@ -0,0 +1,84 @@
+/* 
+ * The MIT License
+ * 
+ * Copyright (c) 2013 Matteo Castellarin, Bruno P. Kinoshita
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package testlink.testcase;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link TokenBucket}.
+ * 
+ * @since 0.1
+ */
+public class TokenBucketTest {
+
+    @Test
+    public void testWaitersServedByPriority() throws Exception {
+        // one token every 500 ms, none left
+        final TokenBucket bucket = new TokenBucket(2.0, 1.0);
+        bucket.acquire(RequestType.QUERY);
+
+        final List<RequestType> served = Collections.synchronizedList(new ArrayList<RequestType>());
+        final Thread spec = waiter(bucket, RequestType.SPEC, served);
+        spec.start();
+        Thread.sleep(100L);
+        final Thread result = waiter(bucket, RequestType.RESULT, served);
+        result.start();
+
+        spec.join(5000L);
+        result.join(5000L);
+        assertEquals(Arrays.asList(RequestType.RESULT, RequestType.SPEC), served);
+    }
+
+    @Test
+    public void testSlowDownNeverGoesAboveConfiguredRate() {
+        final TokenBucket bucket = new TokenBucket(10.0, 1.0);
+        bucket.slowDown();
+        assertEquals(5.0, bucket.getRate(), 0.0);
+        for (int i = 0; i < 20; i++) {
+            bucket.speedUp();
+        }
+        assertEquals(10.0, bucket.getRate(), 0.0);
+    }
+
+    private static Thread waiter(final TokenBucket bucket, final RequestType type, final List<RequestType> served) {
+        return new Thread() {
+            @Override
+            public void run() {
+                try {
+                    bucket.acquire(type);
+                    served.add(type);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+}